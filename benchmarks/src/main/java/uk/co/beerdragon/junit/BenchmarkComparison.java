@@ -0,0 +1,188 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares a JMH result file against a baseline, failing the build on a regression. For example:
+ * 
+ * <pre>
+ * java uk.co.beerdragon.junit.BenchmarkComparison baseline.json jmh-result.json 10
+ * </pre>
+ * 
+ * A benchmark has regressed if its score is worse than the baseline by more than the threshold
+ * percentage, and by more than the two error margins combined so that noise alone is not reported.
+ * Higher is better for throughput, lower for the other modes. If there is no baseline file the
+ * result is copied to it, to be committed as the baseline for later runs.
+ */
+public final class BenchmarkComparison {
+
+  /**
+   * Score of a single benchmark.
+   */
+  /* package */static final class Score {
+
+    private final boolean _higherIsBetter;
+
+    private final double _score;
+
+    private final double _error;
+
+    private final String _unit;
+
+    /* package */Score (final boolean higherIsBetter, final double score, final double error,
+        final String unit) {
+      _higherIsBetter = higherIsBetter;
+      _score = score;
+      _error = Double.isNaN (error) ? 0 : error;
+      _unit = unit;
+    }
+
+    /**
+     * Tests whether this score is a regression from a baseline.
+     * 
+     * @param baseline
+     *          The baseline score, not {@code null}.
+     * @param threshold
+     *          The percentage change allowed.
+     * @return True if this is a regression.
+     */
+    /* package */boolean isRegression (final Score baseline, final double threshold) {
+      final double worse = _higherIsBetter ? baseline._score - _score : _score - baseline._score;
+      return (worse > Math.abs (baseline._score) * threshold / 100)
+          && (worse > baseline._error + _error);
+    }
+
+    @Override
+    public String toString () {
+      return String.format ("%.3f +/- %.3f %s", _score, _error, _unit);
+    }
+
+  }
+
+  /**
+   * Prevents instantiation.
+   */
+  private BenchmarkComparison () {
+  }
+
+  /**
+   * Reads the scores from a JMH JSON result file.
+   * 
+   * @param reader
+   *          The file content, not {@code null}.
+   * @return The scores keyed by benchmark name and parameters, never {@code null}.
+   */
+  /* package */static Map<String, Score> scores (final Reader reader) {
+    final Map<String, Score> scores = new TreeMap<String, Score> ();
+    for (final JsonElement element : JsonParser.parseReader (reader).getAsJsonArray ()) {
+      final JsonObject result = element.getAsJsonObject ();
+      final StringBuilder key = new StringBuilder (result.get ("benchmark").getAsString ());
+      final JsonObject params = result.getAsJsonObject ("params");
+      if (params != null) {
+        for (final Map.Entry<String, JsonElement> param : sorted (params).entrySet ()) {
+          key.append (key.indexOf ("(") < 0 ? " (" : ", ").append (param.getKey ()).append ('=')
+              .append (param.getValue ().getAsString ());
+        }
+        key.append (')');
+      }
+      final JsonObject metric = result.getAsJsonObject ("primaryMetric");
+      final JsonElement error = metric.get ("scoreError");
+      scores.put (key.toString (), new Score ("thrpt".equals (result.get ("mode").getAsString ()),
+          metric.get ("score").getAsDouble (), error.isJsonPrimitive () ? error.getAsDouble ()
+              : 0, metric.get ("scoreUnit").getAsString ()));
+    }
+    return scores;
+  }
+
+  private static Map<String, JsonElement> sorted (final JsonObject object) {
+    final Map<String, JsonElement> map = new TreeMap<String, JsonElement> ();
+    for (final Map.Entry<String, JsonElement> entry : object.entrySet ()) {
+      map.put (entry.getKey (), entry.getValue ());
+    }
+    return map;
+  }
+
+  /**
+   * Finds the regressions between two sets of scores.
+   * 
+   * @param baseline
+   *          The baseline scores, not {@code null}.
+   * @param current
+   *          The current scores, not {@code null}.
+   * @param threshold
+   *          The percentage change allowed.
+   * @return A description of each regression, empty if there are none.
+   */
+  /* package */static List<String> regressions (final Map<String, Score> baseline,
+      final Map<String, Score> current, final double threshold) {
+    final List<String> regressions = new ArrayList<String> ();
+    for (final Map.Entry<String, Score> score : current.entrySet ()) {
+      final Score previous = baseline.get (score.getKey ());
+      if ((previous != null) && score.getValue ().isRegression (previous, threshold)) {
+        regressions.add (score.getKey () + ": " + score.getValue () + " was " + previous);
+      }
+    }
+    return regressions;
+  }
+
+  private static Map<String, Score> scores (final File file) throws IOException {
+    try (Reader reader = new InputStreamReader (Files.newInputStream (file.toPath ()),
+        StandardCharsets.UTF_8)) {
+      return scores (reader);
+    }
+  }
+
+  /**
+   * Compares the files.
+   * 
+   * @param args
+   *          The baseline file, the result file and the threshold percentage.
+   * @throws IOException
+   *           if a file cannot be read
+   */
+  public static void main (final String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println ("Usage: BenchmarkComparison <baseline> <result> <threshold%>");
+      System.exit (2);
+    }
+    final File baseline = new File (args[0]);
+    final File result = new File (args[1]);
+    if (!baseline.exists ()) {
+      Files.copy (result.toPath (), baseline.toPath (), StandardCopyOption.REPLACE_EXISTING);
+      System.out.println ("No baseline; created " + baseline + " from " + result);
+      return;
+    }
+    final List<String> regressions = regressions (scores (baseline), scores (result), Double
+        .parseDouble (args[2]));
+    if (regressions.isEmpty ()) {
+      System.out.println ("No regressions against " + baseline);
+      return;
+    }
+    System.err.println (regressions.size () + " regression(s) against " + baseline + ":");
+    for (final String regression : regressions) {
+      System.err.println ("  " + regression);
+    }
+    System.exit (1);
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,76 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of matching an exception with {@link ExpectException} and {@link ExceptionMatchers}. The
+ * exception is created once so that only the matching is measured.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+public class ExpectExceptionBenchmark {
+
+  private final IllegalStateException _exception = new IllegalStateException ("Foo");
+
+  private final Runnable _throws = new Runnable () {
+
+    @Override
+    public void run () {
+      throw _exception;
+    }
+
+  };
+
+  private final ExpectException _any = ExpectException.any (IllegalStateException.class);
+
+  private final ExpectException _typeAndMessage = ExpectException.that (ExceptionMatchers
+      .hasTypeAndMessage (IllegalStateException.class, "Foo"));
+
+  /**
+   * Creating the expectation and matching the type.
+   */
+  @Benchmark
+  public void any () {
+    ExpectException.any (IllegalStateException.class).from (_throws);
+  }
+
+  /**
+   * Matching the type with an existing expectation.
+   */
+  @Benchmark
+  public void anyReused () {
+    _any.from (_throws);
+  }
+
+  /**
+   * Creating the expectation and matching the type and message.
+   */
+  @Benchmark
+  public void typeAndMessage () {
+    ExpectException.that (ExceptionMatchers.hasTypeAndMessage (IllegalStateException.class, "Foo"))
+        .from (_throws);
+  }
+
+  /**
+   * Matching the type and message with an existing expectation.
+   */
+  @Benchmark
+  public void typeAndMessageReused () {
+    _typeAndMessage.from (_throws);
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Rate at which {@link Noise} exposes a lost update between two tasks, and its cost, at different
+ * intensities. The {@code detected} and {@code runs} counters give the detection rate.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+public class NoiseBenchmark {
+
+  private static final int INCREMENTS = 100;
+
+  /**
+   * Probability of a disturbance at each point.
+   */
+  @Param ({"0.0", "0.1", "0.5", "1.0" })
+  public double _intensity;
+
+  private Threads _threads;
+
+  private final Description _description = Description.createTestDescription (
+      NoiseBenchmark.class, "race");
+
+  private volatile int _counter;
+
+  /**
+   * Races found and attempts made in each iteration.
+   */
+  @State (Scope.Thread)
+  @AuxCounters (AuxCounters.Type.EVENTS)
+  public static class Detection {
+
+    /**
+     * Runs in which an update was lost.
+     */
+    public long detected;
+
+    /**
+     * Runs made.
+     */
+    public long runs;
+
+    /**
+     * Resets the counters.
+     */
+    @Setup (Level.Iteration)
+    public void reset () {
+      detected = 0;
+      runs = 0;
+    }
+
+  }
+
+  /**
+   * Creates the rule with the intensity under test.
+   */
+  @Setup
+  public void setup () {
+    _threads = new Threads ().noise (new Noise (_intensity));
+  }
+
+  private final Runnable _increment = new Runnable () {
+
+    @Override
+    public void run () {
+      for (int i = 0; i < INCREMENTS; i++) {
+        final int value = _counter;
+        Noise.point ();
+        _counter = value + 1;
+      }
+    }
+
+  };
+
+  private final Statement _race = new Statement () {
+
+    @Override
+    public void evaluate () {
+      _counter = 0;
+      _threads.start (_increment);
+      _threads.start (_increment);
+    }
+
+  };
+
+  /**
+   * Two tasks incrementing a shared counter without synchronization.
+   */
+  @Benchmark
+  public void race (final Detection detection) throws Throwable {
+    _threads.apply (_race, _description).evaluate ();
+    detection.runs++;
+    if (_counter != 2 * INCREMENTS) {
+      detection.detected++;
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the stack capture made by {@link Threads#start} for each task, at different call depths.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+public class StackBenchmark {
+
+  /**
+   * Number of frames added above the benchmark method.
+   */
+  @Param ({"10", "100" })
+  public int _depth;
+
+  private static StackTraceElement[] platform (final int depth) {
+    return (depth > 0) ? platform (depth - 1) : Platform.stack ();
+  }
+
+  private static StackTraceElement[] thread (final int depth) {
+    return (depth > 0) ? thread (depth - 1) : Thread.currentThread ().getStackTrace ();
+  }
+
+  /**
+   * Stack capture as used by the rule, with any faster implementation for the running JVM.
+   */
+  @Benchmark
+  public StackTraceElement[] platformStack () {
+    return platform (_depth);
+  }
+
+  /**
+   * The Java 7 stack capture, for comparison.
+   */
+  @Benchmark
+  public StackTraceElement[] threadStack () {
+    return thread (_depth);
+  }
+
+}
\ No newline at end of file
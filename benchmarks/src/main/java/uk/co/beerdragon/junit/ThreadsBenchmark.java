@@ -0,0 +1,117 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Cost of launching tasks with the {@link uk.co.beerdragon.junit.Threads} rule. Each invocation is
+ * a whole test, so the figures include a share of creating and shutting down the executor.
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+public class ThreadsBenchmark {
+
+  private static final int TASKS = 1000;
+
+  private static final int CHILDREN = 9;
+
+  /**
+   * Shared by all benchmark threads, as a rule instance may be by concurrently running tests.
+   */
+  private final uk.co.beerdragon.junit.Threads _threads = new uk.co.beerdragon.junit.Threads ();
+
+  private final Description _description = Description.createTestDescription (
+      ThreadsBenchmark.class, "start");
+
+  private final Runnable _task = new Runnable () {
+
+    @Override
+    public void run () {
+      // No-op
+    }
+
+  };
+
+  private final Statement _start = new Statement () {
+
+    @Override
+    public void evaluate () {
+      for (int i = 0; i < TASKS; i++) {
+        _threads.start (_task);
+      }
+    }
+
+  };
+
+  private final Statement _startFromWorkers = new Statement () {
+
+    @Override
+    public void evaluate () {
+      final CountDownLatch parents = new CountDownLatch (TASKS / (CHILDREN + 1));
+      final Runnable parent = new Runnable () {
+
+        @Override
+        public void run () {
+          for (int i = 0; i < CHILDREN; i++) {
+            _threads.start (_task);
+          }
+          parents.countDown ();
+        }
+
+      };
+      for (int i = 0; i < TASKS / (CHILDREN + 1); i++) {
+        _threads.start (parent);
+      }
+      // Tasks can only be started while the test is running
+      Wait.latch (parents);
+    }
+
+  };
+
+  /**
+   * Tasks launched from the test thread.
+   */
+  @Benchmark
+  @OperationsPerInvocation (TASKS)
+  public void start () throws Throwable {
+    _threads.apply (_start, _description).evaluate ();
+  }
+
+  /**
+   * Tasks launched from the test thread, with several tests running at once.
+   */
+  @Benchmark
+  @Threads (4)
+  @OperationsPerInvocation (TASKS)
+  public void startConcurrentTests () throws Throwable {
+    _threads.apply (_start, _description).evaluate ();
+  }
+
+  /**
+   * Most tasks launched from worker threads.
+   */
+  @Benchmark
+  @OperationsPerInvocation (TASKS)
+  public void startFromWorkers () throws Throwable {
+    _threads.apply (_startFromWorkers, _description).evaluate ();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap retained by {@link Threads} for a test whose tasks all fail, as the number of tasks grows.
+ * The {@code retainedBytes} counter is the heap in use after garbage collection while the failure
+ * is held, less that in use before the test. In bounded memory mode it should not grow with the
+ * number of tasks.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.SingleShotTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 1)
+@Measurement (iterations = 3)
+public class ThreadsMemoryBenchmark {
+
+  /**
+   * Number of tasks started by the test.
+   */
+  @Param ({"1000", "10000", "100000" })
+  public int _tasks;
+
+  /**
+   * Whether bounded memory mode is enabled.
+   */
+  @Param ({"false", "true" })
+  public boolean _bounded;
+
+  private final MemoryMXBean _memory = ManagementFactory.getMemoryMXBean ();
+
+  private final Description _description = Description.createTestDescription (
+      ThreadsMemoryBenchmark.class, "failures");
+
+  private Threads _threads;
+
+  /**
+   * Heap retained by the last test.
+   */
+  @State (Scope.Thread)
+  @AuxCounters (AuxCounters.Type.EVENTS)
+  public static class Retained {
+
+    /**
+     * Bytes of heap retained.
+     */
+    public long retainedBytes;
+
+    /**
+     * Resets the counter.
+     */
+    @Setup (Level.Iteration)
+    public void reset () {
+      retainedBytes = 0;
+    }
+
+  }
+
+  /**
+   * Creates the rule, with logging disabled so that only the failures are retained.
+   */
+  @Setup
+  public void setup () {
+    final Logger logger = Logger.getAnonymousLogger ();
+    logger.setUseParentHandlers (false);
+    logger.setLevel (java.util.logging.Level.OFF);
+    _threads = new Threads (logger);
+    if (_bounded) {
+      _threads.boundedMemory (100);
+    }
+  }
+
+  private final Runnable _fail = new Runnable () {
+
+    @Override
+    public void run () {
+      throw new IllegalStateException ("Foo");
+    }
+
+  };
+
+  private final Statement _start = new Statement () {
+
+    @Override
+    public void evaluate () {
+      for (int i = 0; i < _tasks; i++) {
+        _threads.start (_fail);
+      }
+    }
+
+  };
+
+  private long usedAfterGC () {
+    System.gc ();
+    System.gc ();
+    return _memory.getHeapMemoryUsage ().getUsed ();
+  }
+
+  /**
+   * Runs a test starting the tasks.
+   */
+  @Benchmark
+  public Throwable failures (final Retained retained) {
+    final long before = usedAfterGC ();
+    Throwable failure = null;
+    try {
+      _threads.apply (_start, _description).evaluate ();
+    } catch (final Throwable t) {
+      failure = t;
+    }
+    retained.retainedBytes = Math.max (0, usedAfterGC () - before);
+    return failure;
+  }
+
+}
\ No newline at end of file
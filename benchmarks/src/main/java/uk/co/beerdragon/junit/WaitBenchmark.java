@@ -0,0 +1,123 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Overhead of the {@link Wait} helpers when the condition has already been met, so that no waiting
+ * takes place.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+public class WaitBenchmark {
+
+  private final CountDownLatch _latch = new CountDownLatch (0);
+
+  private final FutureTask<String> _future = new FutureTask<String> (new Runnable () {
+
+    @Override
+    public void run () {
+      // No-op
+    }
+
+  }, "Foo");
+
+  private final CyclicBarrier _barrier = new CyclicBarrier (1);
+
+  private final BlockingQueue<String> _queue = new ArrayBlockingQueue<String> (1);
+
+  private ExecutorService _executor;
+
+  /**
+   * Completes the future and terminates the executor.
+   */
+  @Setup
+  public void setup () throws InterruptedException {
+    _future.run ();
+    _executor = Executors.newSingleThreadExecutor ();
+    _executor.shutdown ();
+    _executor.awaitTermination (1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Releases the executor.
+   */
+  @TearDown
+  public void tearDown () {
+    _executor.shutdownNow ();
+  }
+
+  /**
+   * Wait on a latch that has reached zero.
+   */
+  @Benchmark
+  public void latch () {
+    Wait.latch (_latch);
+  }
+
+  /**
+   * Wait on a latch that has reached zero, from several threads.
+   */
+  @Benchmark
+  @Threads (4)
+  public void latchConcurrently () {
+    Wait.latch (_latch);
+  }
+
+  /**
+   * Wait on a completed future.
+   */
+  @Benchmark
+  public String future () {
+    return Wait.future (_future);
+  }
+
+  /**
+   * Wait on a barrier with a single party.
+   */
+  @Benchmark
+  public void barrier () {
+    Wait.barrier (_barrier);
+  }
+
+  /**
+   * Wait on an executor that has terminated.
+   */
+  @Benchmark
+  public void executor () {
+    Wait.executor (_executor);
+  }
+
+  /**
+   * Wait on a queue holding a value.
+   */
+  @Benchmark
+  public String queue () {
+    _queue.add ("Foo");
+    return Wait.queue (_queue);
+  }
+
+}
\ No newline at end of file
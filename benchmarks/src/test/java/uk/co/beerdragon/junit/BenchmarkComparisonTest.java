@@ -0,0 +1,91 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link BenchmarkComparison}.
+ */
+public class BenchmarkComparisonTest {
+
+  private static String result (final String benchmark, final String mode, final String params,
+      final double score, final String error) {
+    return "{\"benchmark\":\"" + benchmark + "\",\"mode\":\"" + mode + "\","
+        + ((params != null) ? "\"params\":{" + params + "}," : "")
+        + "\"primaryMetric\":{\"score\":" + score + ",\"scoreError\":" + error
+        + ",\"scoreUnit\":\"ns/op\"}}";
+  }
+
+  private static Map<String, BenchmarkComparison.Score> scores (final String... results) {
+    final StringBuilder sb = new StringBuilder ("[");
+    for (final String result : results) {
+      if (sb.length () > 1) {
+        sb.append (',');
+      }
+      sb.append (result);
+    }
+    return BenchmarkComparison.scores (new StringReader (sb.append (']').toString ()));
+  }
+
+  /**
+   * Tests results are keyed by name and sorted parameters.
+   */
+  @Test
+  public void testScores () {
+    final Map<String, BenchmarkComparison.Score> scores = scores (
+        result ("a.Foo.bar", "avgt", null, 1, "0.1"),
+        result ("a.Foo.baz", "avgt", "\"y\":\"2\",\"x\":\"1\"", 2, "\"NaN\""));
+    assertEquals (2, scores.size ());
+    assertEquals ("1.000 +/- 0.100 ns/op", scores.get ("a.Foo.bar").toString ());
+    assertEquals ("2.000 +/- 0.000 ns/op", scores.get ("a.Foo.baz (x=1, y=2)").toString ());
+  }
+
+  /**
+   * Tests a slower average time is a regression.
+   */
+  @Test
+  public void testAverageTimeRegression () {
+    final List<String> regressions = BenchmarkComparison.regressions (scores (result ("a", "avgt",
+        null, 100, "1")), scores (result ("a", "avgt", null, 120, "1")), 10);
+    assertEquals (1, regressions.size ());
+    assertTrue (regressions.get (0).startsWith ("a: 120.000"));
+  }
+
+  /**
+   * Tests a lower throughput is a regression.
+   */
+  @Test
+  public void testThroughputRegression () {
+    assertEquals (1, BenchmarkComparison.regressions (scores (result ("a", "thrpt", null, 100,
+        "1")), scores (result ("a", "thrpt", null, 80, "1")), 10).size ());
+    assertEquals (Collections.emptyList (), BenchmarkComparison.regressions (scores (result ("a",
+        "thrpt", null, 100, "1")), scores (result ("a", "thrpt", null, 120, "1")), 10));
+  }
+
+  /**
+   * Tests changes within the threshold or the error margins are not regressions.
+   */
+  @Test
+  public void testNoRegression () {
+    assertEquals (Collections.emptyList (), BenchmarkComparison.regressions (scores (result ("a",
+        "avgt", null, 100, "1")), scores (result ("a", "avgt", null, 105, "1")), 10));
+    assertEquals (Collections.emptyList (), BenchmarkComparison.regressions (scores (result ("a",
+        "avgt", null, 100, "15")), scores (result ("a", "avgt", null, 120, "15")), 10));
+    assertEquals (Collections.emptyList (), BenchmarkComparison.regressions (scores (result ("a",
+        "avgt", null, 100, "1")), scores (result ("b", "avgt", null, 200, "1")), 10));
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only store of the errors raised during a test. Up to a limit the errors are kept in an
+ * array; beyond it only a count of each type is kept, and reported as a single further failure.
+ * <p>
+ * All methods are thread safe.
+ */
+/* package */final class ErrorStore extends AbstractCollection<Throwable> {
+
+  private static final Throwable[] EMPTY = new Throwable[0];
+
+  private final int _limit;
+
+  private Throwable[] _errors = EMPTY;
+
+  private int _size;
+
+  /**
+   * Number of errors not retained, by type. Created when the first is dropped.
+   */
+  private Map<String, Integer> _dropped;
+
+  private int _droppedCount;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param limit
+   *          The maximum number of errors to retain, one or more.
+   */
+  public ErrorStore (final int limit) {
+    _limit = limit;
+  }
+
+  /**
+   * Returns the number of errors received but not retained.
+   * 
+   * @return The number of errors, zero or more.
+   */
+  public synchronized int dropped () {
+    return _droppedCount;
+  }
+
+  /**
+   * Returns the errors to report. If any were not retained, a further {@link AssertionError} is
+   * included giving the number of each type.
+   * 
+   * @return The errors, never {@code null}.
+   */
+  public synchronized List<Throwable> failures () {
+    final List<Throwable> failures = new ArrayList<Throwable> (Arrays.asList (_errors).subList (
+        0, _size));
+    if (_dropped != null) {
+      final StringBuilder sb = new StringBuilder ();
+      sb.append (_droppedCount).append (" further failure(s) not retained:");
+      for (final Map.Entry<String, Integer> type : _dropped.entrySet ()) {
+        sb.append ("\n  ").append (type.getValue ()).append (" x ").append (type.getKey ());
+      }
+      failures.add (new AssertionError (sb.toString ()));
+    }
+    return failures;
+  }
+
+  // Collection
+
+  @Override
+  public synchronized boolean add (final Throwable error) {
+    if (_size < _limit) {
+      if (_size == _errors.length) {
+        _errors = Arrays.copyOf (_errors, (int)Math.min (Math.max (4, _size * 2L), _limit));
+      }
+      _errors[_size++] = error;
+    } else {
+      if (_dropped == null) {
+        _dropped = new TreeMap<String, Integer> ();
+      }
+      final String type = error.getClass ().getName ();
+      final Integer count = _dropped.get (type);
+      _dropped.put (type, (count != null) ? count + 1 : 1);
+      _droppedCount++;
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized Iterator<Throwable> iterator () {
+    return Arrays.asList (Arrays.copyOf (_errors, _size)).iterator ();
+  }
+
+  @Override
+  public synchronized int size () {
+    return _size;
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+/**
+ * Low overhead histogram of non-negative values, typically latencies in nanoseconds. Values below
+ * 32 are counted exactly; larger values are counted in log-linear buckets with 16 sub-divisions for
+ * each power of two, giving a relative error of at most 1/16 for any reported percentile.
+ * <p>
+ * Recording a value is a handful of arithmetic operations and an array increment with no
+ * allocation. Instances are not thread-safe; a histogram should be written by a single thread and
+ * then combined with others using {@link #merge}.
+ */
+public final class Histogram {
+
+  private static final int EXACT = 32;
+
+  private static final int SUB_BUCKETS = 16;
+
+  private static final int SUB_BITS = 4;
+
+  private static final int BUCKETS = EXACT + (63 - 5) * SUB_BUCKETS;
+
+  private final long[] _counts = new long[BUCKETS];
+
+  private long _count;
+
+  private long _max;
+
+  private long _total;
+
+  /**
+   * Creates a new, empty, instance.
+   */
+  public Histogram () {
+  }
+
+  /* package */static int bucket (final long value) {
+    if (value < EXACT) {
+      return (value < 0) ? 0 : (int)value;
+    }
+    final int msb = 63 - Long.numberOfLeadingZeros (value);
+    final int sub = (int)(value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return EXACT + (msb - 5) * SUB_BUCKETS + sub;
+  }
+
+  /* package */static long upperBound (final int bucket) {
+    if (bucket < EXACT) {
+      return bucket;
+    }
+    final int msb = (bucket - EXACT) / SUB_BUCKETS + 5;
+    final long sub = (bucket - EXACT) % SUB_BUCKETS;
+    final long width = 1L << (msb - SUB_BITS);
+    return ((SUB_BUCKETS + sub) * width) + width - 1;
+  }
+
+  /**
+   * Records a value.
+   * 
+   * @param value
+   *          The value to record, negative values are recorded as zero.
+   */
+  public void record (final long value) {
+    _counts[bucket (value)]++;
+    _count++;
+    if (value > 0) {
+      _total += value;
+      if (value > _max) {
+        _max = value;
+      }
+    }
+  }
+
+  /**
+   * Adds the values recorded by another histogram to this one.
+   * 
+   * @param other
+   *          The histogram to merge, not {@code null}.
+   */
+  public void merge (final Histogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      _counts[i] += other._counts[i];
+    }
+    _count += other._count;
+    _total += other._total;
+    if (other._max > _max) {
+      _max = other._max;
+    }
+  }
+
+  /**
+   * Returns the number of values recorded.
+   * 
+   * @return The number of values.
+   */
+  public long count () {
+    return _count;
+  }
+
+  /**
+   * Returns the largest value recorded.
+   * 
+   * @return The largest value, or zero if none were recorded.
+   */
+  public long max () {
+    return _max;
+  }
+
+  /**
+   * Returns the arithmetic mean of the values recorded.
+   * 
+   * @return The mean value, or zero if none were recorded.
+   */
+  public double mean () {
+    return (_count == 0) ? 0 : (double)_total / (double)_count;
+  }
+
+  /**
+   * Returns an upper bound for the given percentile.
+   * 
+   * @param percentile
+   *          The percentile to query, between 0 and 100.
+   * @return The upper bound of the bucket containing the percentile, never more than {@link #max},
+   *         or zero if no values were recorded.
+   */
+  public long percentile (final double percentile) {
+    if (_count == 0) {
+      return 0;
+    }
+    final long rank = Math.max (1, (long)Math.ceil ((percentile / 100.0) * _count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += _counts[i];
+      if (seen >= rank) {
+        return Math.min (upperBound (i), _max);
+      }
+    }
+    return _max;
+  }
+
+  // Object
+
+  @Override
+  public String toString () {
+    return "count=" + _count + ", p50=" + percentile (50) + ", p90=" + percentile (90) + ", p99="
+        + percentile (99) + ", max=" + _max;
+  }
+
+}
\ No newline at end of file
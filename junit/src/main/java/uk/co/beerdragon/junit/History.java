@@ -0,0 +1,202 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record of the operations invoked on a shared object by concurrent tasks, for checking with
+ * {@link Linearizability}. For example:
+ * 
+ * <pre class="code java">
+ * <span class="k">final</span> <span class="i">History</span>.<span class="i">Operation op</span> = <span class="i">history</span>.<span class="i">invoke</span> (<span class="i">key</span>, <span class="l">"put"</span>, <span class="i">key</span>, <span class="i">value</span>);
+ * <span class="i">op</span>.<span class="i">returned</span> (<span class="i">map</span>.<span class="i">put</span> (<span class="i">key</span>, <span class="i">value</span>));
+ * </pre>
+ * 
+ * Invocations and responses are ordered by a single logical clock so the real-time order of
+ * operations is captured exactly. Instances are thread-safe.
+ */
+public final class History {
+
+  private final AtomicLong _clock = new AtomicLong ();
+
+  private final ConcurrentLinkedQueue<Operation> _operations =
+      new ConcurrentLinkedQueue<Operation> ();
+
+  /**
+   * A single operation in the history.
+   */
+  public static final class Operation {
+
+    private final Object _key;
+
+    private final String _name;
+
+    private final Object[] _arguments;
+
+    private final String _thread;
+
+    private final long _invoked;
+
+    private final History _history;
+
+    private volatile long _returned = -1;
+
+    private volatile Object _result;
+
+    private Operation (final History history, final Object key, final String name,
+        final Object[] arguments, final String thread, final long invoked) {
+      _history = history;
+      _key = key;
+      _name = name;
+      _arguments = arguments;
+      _thread = thread;
+      _invoked = invoked;
+    }
+
+    /**
+     * Copies an operation, treating it as pending if it had not returned by a given time.
+     */
+    /* package */Operation (final Operation copy, final long cutOff) {
+      this (copy._history, copy._key, copy._name, copy._arguments, copy._thread, copy._invoked);
+      if ((copy._returned >= 0) && (copy._returned <= cutOff)) {
+        _returned = copy._returned;
+        _result = copy._result;
+      }
+    }
+
+    /**
+     * Records the response to the operation.
+     * 
+     * @param result
+     *          The value returned by the operation, {@code null} for none.
+     */
+    public void returned (final Object result) {
+      assert _returned < 0;
+      _result = result;
+      _returned = _history._clock.incrementAndGet ();
+    }
+
+    /**
+     * Returns the partition key of the operation. Operations with different keys are assumed to
+     * act on independent parts of the object's state.
+     * 
+     * @return The key, possibly {@code null}.
+     */
+    public Object getKey () {
+      return _key;
+    }
+
+    /**
+     * Returns the name of the operation.
+     * 
+     * @return The name, never {@code null}.
+     */
+    public String getName () {
+      return _name;
+    }
+
+    /**
+     * Returns the arguments to the operation.
+     * 
+     * @return The arguments, never {@code null}.
+     */
+    public Object[] getArguments () {
+      return _arguments.clone ();
+    }
+
+    /**
+     * Returns the value returned by the operation.
+     * 
+     * @return The result, {@code null} for none or if the operation is pending.
+     */
+    public Object getResult () {
+      return _result;
+    }
+
+    /**
+     * Returns the logical time the operation was invoked.
+     * 
+     * @return The invocation time.
+     */
+    public long getInvoked () {
+      return _invoked;
+    }
+
+    /**
+     * Returns the logical time the operation returned.
+     * 
+     * @return The response time, or -1 if the operation is pending.
+     */
+    public long getReturned () {
+      return _returned;
+    }
+
+    /**
+     * Tests whether the operation had not returned when the history was taken.
+     * 
+     * @return {@code true} if there was no response.
+     */
+    public boolean isPending () {
+      return _returned < 0;
+    }
+
+    // Object
+
+    @Override
+    public String toString () {
+      final StringBuilder sb = new StringBuilder ();
+      sb.append ('[').append (_invoked).append (", ");
+      if (isPending ()) {
+        sb.append ("...");
+      } else {
+        sb.append (_returned);
+      }
+      sb.append ("] ").append (_thread).append (' ').append (_name);
+      final String arguments = Arrays.deepToString (_arguments);
+      sb.append (" (").append (arguments, 1, arguments.length () - 1).append (')');
+      if (!isPending ()) {
+        sb.append (" -> ").append (_result);
+      }
+      return sb.toString ();
+    }
+
+  }
+
+  /**
+   * Records the invocation of an operation.
+   * 
+   * @param key
+   *          The partition key, operations with different keys must not affect each other, or
+   *          {@code null} if the history cannot be partitioned.
+   * @param name
+   *          The name of the operation, not {@code null}.
+   * @param arguments
+   *          The arguments to the operation.
+   * @return The operation to record the response against, never {@code null}.
+   */
+  public Operation invoke (final Object key, final String name, final Object... arguments) {
+    final Operation operation = new Operation (this, key, name, arguments, Thread.currentThread ()
+        .getName (), _clock.incrementAndGet ());
+    _operations.add (operation);
+    return operation;
+  }
+
+  /**
+   * Returns the operations recorded so far, in no particular order.
+   * 
+   * @return The operations, never {@code null}.
+   */
+  public List<Operation> operations () {
+    return new ArrayList<Operation> (_operations);
+  }
+
+}
\ No newline at end of file
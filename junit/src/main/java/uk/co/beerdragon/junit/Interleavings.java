@@ -0,0 +1,566 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Systematic exploration of the interleavings of a small number of tasks. For example:
+ * 
+ * <pre class="code java">
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ();
+ * 
+ *  <span class="i">&#064;Test</span>
+ *  <span class="k">public void</span> <span class="i">testPushPop</span> () {
+ *    <span class="k">new</span> <span class="i">Interleavings</span> (<span class="i">threads</span>, <span class="l">2</span>).<span class="i">explore</span> (<span class="k">new</span> <span class="i">Interleavings</span>.<span class="i">Scenario</span> () {
+ *      <span class="c">// ... create a fresh stack and the tasks that use it, then check its final state</span>
+ *    });
+ *  }
+ * </pre>
+ * 
+ * The tasks of a scenario run on threads from the {@link Threads} rule but only one of them is
+ * allowed to run at a time. Control can only pass between them when a task finishes or calls
+ * {@link #yield}, which should be placed at each access to shared state that matters. Schedules are
+ * explored depth first with a bound on the number of preemptions (switches away from a task that
+ * could have continued), in the manner of CHESS, with independent parts of the search running in
+ * parallel.
+ * <p>
+ * Each schedule has an identifier listing the choices made at each scheduling point. A failure is
+ * reported with its identifier, and {@link #replay} will run exactly that schedule again. Tasks
+ * must not block on anything other than the scheduler; a task that fails to reach a scheduling
+ * point in time fails the schedule. A replayed schedule has the whole {@link Wait#maxWait} time
+ * budget, but all of the schedules explored by a call to {@link #explore} share one.
+ */
+public final class Interleavings {
+
+  /**
+   * A test that can be run repeatedly under different schedules.
+   */
+  public interface Scenario {
+
+    /**
+     * Creates fresh shared state and the tasks that will act on it.
+     * 
+     * @return The tasks to interleave, not {@code null}.
+     */
+    Runnable[] setUp ();
+
+    /**
+     * Checks the shared state once all of the tasks have finished.
+     * 
+     * @throws AssertionError
+     *           if the state is not correct
+     */
+    void check ();
+
+  }
+
+  /**
+   * The run, and position within it, of a task thread.
+   */
+  private static final ThreadLocal<Task> CURRENT = new ThreadLocal<Task> ();
+
+  private static final Logger LOGGER = Logger.getLogger (Interleavings.class.getName ());
+
+  private final Threads _threads;
+
+  private final int _preemptions;
+
+  private int _parallelism = Runtime.getRuntime ().availableProcessors ();
+
+  private long _limit = Long.MAX_VALUE;
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param threads
+   *          The rule to launch tasks with, not {@code null}.
+   * @param preemptions
+   *          The maximum number of preemptions in any schedule explored.
+   */
+  public Interleavings (final Threads threads, final int preemptions) {
+    _threads = threads;
+    _preemptions = preemptions;
+  }
+
+  /**
+   * Sets the number of schedules that will be run concurrently.
+   * 
+   * @param parallelism
+   *          The number of concurrent schedules, one or more.
+   * @return This instance, for chaining.
+   */
+  public Interleavings parallelism (final int parallelism) {
+    assert parallelism > 0;
+    _parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of schedules that will be explored.
+   * 
+   * @param limit
+   *          The maximum number of schedules, one or more.
+   * @return This instance, for chaining.
+   */
+  public Interleavings limit (final long limit) {
+    assert limit > 0;
+    _limit = limit;
+    return this;
+  }
+
+  /**
+   * Thrown from scheduling points to unwind tasks once a run has been abandoned.
+   */
+  private static final class Abort extends Error {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace () {
+      return this;
+    }
+
+  }
+
+  /**
+   * A task within a run.
+   */
+  private static final class Task {
+
+    private final Run _run;
+
+    private final int _index;
+
+    public Task (final Run run, final int index) {
+      _run = run;
+      _index = index;
+    }
+
+  }
+
+  /**
+   * A single execution of the scenario under a schedule.
+   */
+  private static final class Run {
+
+    private final int[] _prefix;
+
+    private final ReentrantLock _lock = new ReentrantLock ();
+
+    private final Condition _changed = _lock.newCondition ();
+
+    private final long _deadline;
+
+    private final boolean[] _finished;
+
+    private int _remaining;
+
+    private int _current = -1;
+
+    private boolean _aborted;
+
+    private Throwable _failure;
+
+    /**
+     * The choice made at each scheduling point with more than one option.
+     */
+    private final List<Integer> _choices = new ArrayList<Integer> ();
+
+    /**
+     * The tasks that could have been chosen at each scheduling point.
+     */
+    private final List<boolean[]> _enabled = new ArrayList<boolean[]> ();
+
+    /**
+     * The task that was running and could have continued at each scheduling point, or -1.
+     */
+    private final List<Integer> _running = new ArrayList<Integer> ();
+
+    public Run (final int[] prefix, final int tasks, final long deadline) {
+      _prefix = prefix;
+      _deadline = deadline;
+      _finished = new boolean[tasks];
+      _remaining = tasks;
+    }
+
+    /**
+     * Chooses the next task to run. Called with the lock held.
+     * 
+     * @param running
+     *          The task that is running and could continue, or -1 if there is none.
+     */
+    private int choose (final int running) {
+      int first = -1;
+      int options = 0;
+      for (int i = 0; i < _finished.length; i++) {
+        if (!_finished[i]) {
+          if (first < 0) first = i;
+          options++;
+        }
+      }
+      if (options <= 1) {
+        return first;
+      }
+      final int position = _choices.size ();
+      final int choice;
+      if (position < _prefix.length) {
+        choice = _prefix[position];
+        if ((choice < 0) || (choice >= _finished.length) || _finished[choice]) {
+          throw new IllegalStateException ("Schedule diverged at choice " + position);
+        }
+      } else if (running >= 0) {
+        choice = running;
+      } else {
+        choice = first;
+      }
+      _choices.add (choice);
+      _enabled.add (invert (_finished));
+      _running.add (running);
+      return choice;
+    }
+
+    private static boolean[] invert (final boolean[] values) {
+      final boolean[] result = new boolean[values.length];
+      for (int i = 0; i < values.length; i++) {
+        result[i] = !values[i];
+      }
+      return result;
+    }
+
+    private void fail (final Throwable failure) {
+      if (_failure == null) {
+        _failure = failure;
+      }
+      _aborted = true;
+      _changed.signalAll ();
+    }
+
+    /**
+     * Waits until the task is scheduled. Called with the lock held.
+     */
+    private void await (final int task) {
+      while (!_aborted && (_current != task)) {
+        final long remaining = _deadline - System.nanoTime ();
+        if (remaining <= 0) {
+          fail (new AssertionError ("Task " + _current
+              + " did not reach a scheduling point in time"));
+          break;
+        }
+        try {
+          _changed.awaitNanos (remaining);
+        } catch (final InterruptedException e) {
+          fail (e);
+        }
+      }
+      if (_aborted) {
+        throw new Abort ();
+      }
+    }
+
+    private void switchTo (final int task) {
+      _current = task;
+      _changed.signalAll ();
+    }
+
+    public void yield (final int task) {
+      _lock.lock ();
+      try {
+        if (_aborted) {
+          throw new Abort ();
+        }
+        final int next;
+        try {
+          next = choose (task);
+        } catch (final IllegalStateException e) {
+          fail (e);
+          throw new Abort ();
+        }
+        if (next != task) {
+          switchTo (next);
+          await (task);
+        }
+      } finally {
+        _lock.unlock ();
+      }
+    }
+
+    public void finished (final int task, final Throwable failure) {
+      _lock.lock ();
+      try {
+        _finished[task] = true;
+        _remaining--;
+        if (failure != null) {
+          fail (failure);
+        } else if ((_remaining > 0) && !_aborted) {
+          try {
+            switchTo (choose (-1));
+          } catch (final IllegalStateException e) {
+            fail (e);
+          }
+        }
+        _changed.signalAll ();
+      } finally {
+        _lock.unlock ();
+      }
+    }
+
+    public String id () {
+      final StringBuilder sb = new StringBuilder ();
+      for (final int choice : _choices) {
+        if (sb.length () > 0) sb.append ('.');
+        sb.append (choice);
+      }
+      return sb.toString ();
+    }
+
+    /**
+     * Returns the number of preemptions in the first choices.
+     */
+    public int preemptions (final int choices) {
+      int count = 0;
+      for (int i = 0; i < choices; i++) {
+        final int running = _running.get (i);
+        if ((running >= 0) && (running != _choices.get (i))) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+  }
+
+  /**
+   * Runs the scenario once under a schedule, failing it if it has not completed by the deadline.
+   */
+  private Run execute (final Scenario scenario, final int[] prefix, final long deadline) {
+    final Runnable[] tasks = scenario.setUp ();
+    final Run run = new Run (prefix, tasks.length, deadline);
+    run._lock.lock ();
+    try {
+      if (tasks.length > 0) {
+        try {
+          run._current = run.choose (-1);
+        } catch (final IllegalStateException e) {
+          run.fail (e);
+        }
+      }
+    } finally {
+      run._lock.unlock ();
+    }
+    for (int i = 0; i < tasks.length; i++) {
+      final Task task = new Task (run, i);
+      final Runnable body = tasks[i];
+      _threads.start (new Runnable () {
+
+        @Override
+        public void run () {
+          CURRENT.set (task);
+          Throwable failure = null;
+          try {
+            run._lock.lock ();
+            try {
+              run.await (task._index);
+            } finally {
+              run._lock.unlock ();
+            }
+            body.run ();
+          } catch (final Abort e) {
+            // Run abandoned
+          } catch (final Throwable t) {
+            failure = t;
+          } finally {
+            CURRENT.remove ();
+            run.finished (task._index, failure);
+          }
+        }
+
+        @Override
+        public String toString () {
+          return "Interleaved task " + task._index;
+        }
+
+      });
+    }
+    run._lock.lock ();
+    try {
+      while (run._remaining > 0) {
+        final long remaining = run._deadline - System.nanoTime ();
+        if (remaining <= 0) {
+          run.fail (new AssertionError ("Schedule " + run.id () + " did not complete in time"));
+          break;
+        }
+        try {
+          run._changed.awaitNanos (remaining);
+        } catch (final InterruptedException e) {
+          run.fail (e);
+          break;
+        }
+      }
+    } finally {
+      run._lock.unlock ();
+    }
+    if (run._failure == null) {
+      try {
+        scenario.check ();
+      } catch (final Throwable t) {
+        run._failure = t;
+      }
+    }
+    return run;
+  }
+
+  private static AssertionError failure (final Run run) {
+    final AssertionError error = new AssertionError ("Schedule " + run.id () + " failed");
+    error.initCause (run._failure);
+    return error;
+  }
+
+  /**
+   * Scheduling point. When called from a task being explored, another task may be run before this
+   * returns. Otherwise this does nothing.
+   */
+  public static void yield () {
+    final Task task = CURRENT.get ();
+    if (task != null) {
+      task._run.yield (task._index);
+    }
+  }
+
+  /**
+   * Runs a single schedule.
+   * 
+   * @param scenario
+   *          The scenario to run, not {@code null}.
+   * @param schedule
+   *          The identifier of the schedule, as reported with a failure, not {@code null}.
+   * @throws AssertionError
+   *           if the scenario fails under the schedule
+   */
+  public void replay (final Scenario scenario, final String schedule) {
+    final String[] choices = schedule.isEmpty () ? new String[0] : schedule.split ("\\.");
+    final int[] prefix = new int[choices.length];
+    for (int i = 0; i < choices.length; i++) {
+      prefix[i] = Integer.parseInt (choices[i]);
+    }
+    final Run run = execute (scenario, prefix, System.nanoTime ()
+        + TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ()));
+    if (run._failure != null) {
+      throw failure (run);
+    }
+  }
+
+  /**
+   * Explores the schedules of a scenario until one fails, all have been run, the limit is reached or
+   * half of the {@link Wait#maxWait} time budget has been used. A schedule still running when three
+   * quarters of the budget has been used fails.
+   * 
+   * @param scenario
+   *          The scenario to explore, not {@code null}.
+   * @return The number of schedules run.
+   * @throws AssertionError
+   *           if the scenario fails under any schedule, identifying the schedule
+   */
+  public long explore (final Scenario scenario) {
+    final long budget = TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ());
+    final long start = System.nanoTime ();
+    final long deadline = start + budget / 2;
+    // Leaves time for a schedule that overruns to be reported before the wait for the workers ends
+    final long runDeadline = start + budget / 4 * 3;
+    final LinkedBlockingDeque<int[]> work = new LinkedBlockingDeque<int[]> ();
+    final AtomicInteger pending = new AtomicInteger (1);
+    final AtomicLong explored = new AtomicLong ();
+    final AtomicReference<AssertionError> failure = new AtomicReference<AssertionError> ();
+    final CountDownLatch complete = new CountDownLatch (_parallelism);
+    work.add (new int[0]);
+    for (int i = 0; i < _parallelism; i++) {
+      _threads.start (new Runnable () {
+
+        private void search (final int[] prefix) {
+          final Run run = execute (scenario, prefix, runDeadline);
+          if (run._failure != null) {
+            failure.compareAndSet (null, failure (run));
+            return;
+          }
+          // Branch at each choice made beyond the prefix
+          for (int j = run._choices.size (); --j >= prefix.length;) {
+            final int base = run.preemptions (j);
+            final boolean[] enabled = run._enabled.get (j);
+            final int running = run._running.get (j);
+            for (int alternative = 0; alternative < enabled.length; alternative++) {
+              if (!enabled[alternative] || (alternative == run._choices.get (j))) {
+                continue;
+              }
+              final int preemptions = base + (((running >= 0) && (alternative != running)) ? 1 : 0);
+              if (preemptions > _preemptions) {
+                continue;
+              }
+              final int[] child = new int[j + 1];
+              for (int k = 0; k < j; k++) {
+                child[k] = run._choices.get (k);
+              }
+              child[j] = alternative;
+              pending.incrementAndGet ();
+              work.addFirst (child);
+            }
+          }
+        }
+
+        @Override
+        public void run () {
+          try {
+            while ((failure.get () == null) && (pending.get () > 0)) {
+              if ((System.nanoTime () - deadline > 0) || (explored.get () >= _limit)) {
+                break;
+              }
+              final int[] prefix;
+              try {
+                prefix = work.pollFirst (1, TimeUnit.MILLISECONDS);
+              } catch (final InterruptedException e) {
+                break;
+              }
+              if (prefix == null) {
+                continue;
+              }
+              explored.incrementAndGet ();
+              try {
+                search (prefix);
+              } finally {
+                pending.decrementAndGet ();
+              }
+            }
+          } finally {
+            complete.countDown ();
+          }
+        }
+
+      });
+    }
+    Wait.latch (complete);
+    if (failure.get () != null) {
+      throw failure.get ();
+    }
+    if (pending.get () > 0) {
+      LOGGER.warning ("Exploration incomplete after " + explored.get () + " schedules");
+    } else {
+      LOGGER.fine ("Explored all " + explored.get () + " schedules");
+    }
+    return explored.get ();
+  }
+
+}
\ No newline at end of file
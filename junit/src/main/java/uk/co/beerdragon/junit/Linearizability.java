@@ -0,0 +1,447 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks a {@link History} of concurrent operations against a sequential specification. For
+ * example:
+ * 
+ * <pre class="code java">
+ * <span class="i">Linearizability</span>.<span class="i">check</span> (<span class="i">history</span>, <span class="k">new</span> <span class="i">Linearizability</span>.<span class="i">Specification</span>&lt;<span class="i">Integer</span>&gt; () {
+ *   <span class="c">// ... the sequential behaviour of a single register</span>
+ * });
+ * </pre>
+ * 
+ * The history is partitioned by operation key and each partition is checked independently, in
+ * parallel, using the Wing &amp; Gong search with the state cache described by Lowe. If a partition
+ * cannot be linearized, the shortest prefix of that partition which cannot be linearized is
+ * reported. Operations that were still pending at the end of the prefix may take effect at any
+ * point after their invocation, or not at all.
+ */
+public final class Linearizability {
+
+  /**
+   * Prevents instantiation.
+   */
+  private Linearizability () {
+  }
+
+  /**
+   * Sequential specification of the object the history was recorded against. States must be
+   * immutable and implement {@link Object#equals} and {@link Object#hashCode}.
+   * 
+   * @param <S>
+   *          The state type
+   */
+  public interface Specification<S> {
+
+    /**
+     * Returns the state of a partition before any operations have been applied.
+     * 
+     * @param key
+     *          The partition key, possibly {@code null}.
+     * @return The initial state, not {@code null}.
+     */
+    S initial (Object key);
+
+    /**
+     * Applies an operation to a state.
+     * 
+     * @param state
+     *          The state before the operation, not {@code null}.
+     * @param operation
+     *          The operation to apply, not {@code null}. The recorded result should be ignored.
+     * @return The new state and the result the operation should have returned, not {@code null}.
+     */
+    Step<S> apply (S state, History.Operation operation);
+
+  }
+
+  /**
+   * Outcome of applying an operation in a {@link Specification}.
+   * 
+   * @param <S>
+   *          The state type
+   */
+  public static final class Step<S> {
+
+    private final S _state;
+
+    private final Object _result;
+
+    private Step (final S state, final Object result) {
+      _state = state;
+      _result = result;
+    }
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param <S>
+     *          The state type
+     * @param state
+     *          The state after the operation, not {@code null}.
+     * @param result
+     *          The expected result of the operation, {@code null} for none.
+     * @return The step, never {@code null}.
+     */
+    public static <S> Step<S> of (final S state, final Object result) {
+      return new Step<S> (state, result);
+    }
+
+  }
+
+  /**
+   * Node in the list of invocation and response events searched by the checker.
+   */
+  private static final class Entry {
+
+    private final History.Operation _operation;
+
+    private final int _id;
+
+    private final long _time;
+
+    private Entry _match;
+
+    private Entry _prev;
+
+    private Entry _next;
+
+    public Entry (final History.Operation operation, final int id, final long time) {
+      _operation = operation;
+      _id = id;
+      _time = time;
+    }
+
+    public boolean isCall () {
+      return _match != null;
+    }
+
+    /**
+     * Removes a call entry, and its response, from the list.
+     */
+    public void lift () {
+      _prev._next = _next;
+      if (_next != null) _next._prev = _prev;
+      final Entry response = _match;
+      response._prev._next = response._next;
+      if (response._next != null) response._next._prev = response._prev;
+    }
+
+    /**
+     * Restores a call entry, and its response, to the list.
+     */
+    public void unlift () {
+      final Entry response = _match;
+      response._prev._next = response;
+      if (response._next != null) response._next._prev = response;
+      _prev._next = this;
+      if (_next != null) _next._prev = this;
+    }
+
+  }
+
+  /**
+   * Entry in the cache of configurations already explored.
+   */
+  private static final class Configuration {
+
+    private final BitSet _linearized;
+
+    private final Object _state;
+
+    public Configuration (final BitSet linearized, final Object state) {
+      _linearized = (BitSet)linearized.clone ();
+      _state = state;
+    }
+
+    @Override
+    public boolean equals (final Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Configuration)) return false;
+      final Configuration other = (Configuration)o;
+      return _linearized.equals (other._linearized) && _state.equals (other._state);
+    }
+
+    @Override
+    public int hashCode () {
+      return _linearized.hashCode () * 31 + _state.hashCode ();
+    }
+
+  }
+
+  /**
+   * Builds the event list for a set of operations.
+   * 
+   * @return The head sentinel of the list.
+   */
+  private static Entry events (final List<History.Operation> operations) {
+    final List<Entry> events = new ArrayList<Entry> (operations.size () * 2);
+    for (int i = 0; i < operations.size (); i++) {
+      final History.Operation operation = operations.get (i);
+      final Entry call = new Entry (operation, i, operation.getInvoked ());
+      final Entry response = new Entry (operation, i, operation.isPending () ? Long.MAX_VALUE
+          : operation.getReturned ());
+      call._match = response;
+      events.add (call);
+      events.add (response);
+    }
+    Collections.sort (events, new Comparator<Entry> () {
+
+      @Override
+      public int compare (final Entry a, final Entry b) {
+        return Long.compare (a._time, b._time);
+      }
+
+    });
+    final Entry head = new Entry (null, -1, Long.MIN_VALUE);
+    Entry tail = head;
+    for (final Entry event : events) {
+      event._prev = tail;
+      tail._next = event;
+      tail = event;
+    }
+    return head;
+  }
+
+  private static <S> boolean isLinearizable (final Object key,
+      final List<History.Operation> operations, final Specification<S> specification) {
+    final Entry head = events (operations);
+    final BitSet linearized = new BitSet (operations.size ());
+    final Set<Configuration> cache = new HashSet<Configuration> ();
+    final LinkedList<Entry> calls = new LinkedList<Entry> ();
+    final LinkedList<S> states = new LinkedList<S> ();
+    S state = specification.initial (key);
+    Entry entry = head._next;
+    while (head._next != null) {
+      if (entry.isCall ()) {
+        final History.Operation operation = entry._operation;
+        final Step<S> step = specification.apply (state, operation);
+        if (operation.isPending () || Objects.equals (step._result, operation.getResult ())) {
+          linearized.set (entry._id);
+          if (cache.add (new Configuration (linearized, step._state))) {
+            calls.push (entry);
+            states.push (state);
+            state = step._state;
+            entry.lift ();
+            entry = head._next;
+            continue;
+          }
+          linearized.clear (entry._id);
+        }
+        entry = entry._next;
+      } else {
+        if (entry._operation.isPending ()) {
+          // Only pending operations remain
+          return true;
+        }
+        if (calls.isEmpty ()) {
+          return false;
+        }
+        entry = calls.pop ();
+        state = states.pop ();
+        linearized.clear (entry._id);
+        entry.unlift ();
+        entry = entry._next;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the shortest non-linearizable prefix of a partition.
+   * 
+   * @return The prefix, or {@code null} if the partition is linearizable.
+   */
+  private static <S> List<History.Operation> shortestViolation (final Object key,
+      final List<History.Operation> operations, final Specification<S> specification) {
+    if (isLinearizable (key, operations, specification)) {
+      return null;
+    }
+    // Find the earliest event at which the history stops being linearizable
+    final long[] events = new long[operations.size () * 2];
+    int count = 0;
+    for (final History.Operation operation : operations) {
+      events[count++] = operation.getInvoked ();
+      if (!operation.isPending ()) {
+        events[count++] = operation.getReturned ();
+      }
+    }
+    Arrays.sort (events, 0, count);
+    int lower = 0;
+    int upper = count - 1;
+    List<History.Operation> violation = prefix (operations, events[upper]);
+    while (lower < upper) {
+      final int middle = (lower + upper) >>> 1;
+      final List<History.Operation> prefix = prefix (operations, events[middle]);
+      if (isLinearizable (key, prefix, specification)) {
+        lower = middle + 1;
+      } else {
+        upper = middle;
+        violation = prefix;
+      }
+    }
+    return violation;
+  }
+
+  /**
+   * Returns the operations invoked up to a given time, with any that had not returned by then
+   * marked as pending.
+   */
+  private static List<History.Operation> prefix (final List<History.Operation> operations,
+      final long cutOff) {
+    final List<History.Operation> prefix = new ArrayList<History.Operation> ();
+    for (final History.Operation operation : operations) {
+      if (operation.getInvoked () <= cutOff) {
+        prefix.add (new History.Operation (operation, cutOff));
+      }
+    }
+    Collections.sort (prefix, new Comparator<History.Operation> () {
+
+      @Override
+      public int compare (final History.Operation a, final History.Operation b) {
+        return Long.compare (a.getInvoked (), b.getInvoked ());
+      }
+
+    });
+    return prefix;
+  }
+
+  /**
+   * Checks a single partition.
+   */
+  private static final class Partition<S> extends RecursiveTask<List<History.Operation>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object _key;
+
+    private final List<History.Operation> _operations;
+
+    private final Specification<S> _specification;
+
+    public Partition (final Object key, final List<History.Operation> operations,
+        final Specification<S> specification) {
+      _key = key;
+      _operations = operations;
+      _specification = specification;
+    }
+
+    @Override
+    protected List<History.Operation> compute () {
+      return shortestViolation (_key, _operations, _specification);
+    }
+
+  }
+
+  /**
+   * Checks all partitions, returning the first violation found.
+   */
+  private static final class Partitions<S> extends RecursiveTask<List<History.Operation>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Object, List<History.Operation>> _partitions;
+
+    private final Specification<S> _specification;
+
+    public Partitions (final Map<Object, List<History.Operation>> partitions,
+        final Specification<S> specification) {
+      _partitions = partitions;
+      _specification = specification;
+    }
+
+    @Override
+    protected List<History.Operation> compute () {
+      final List<Partition<S>> tasks = new ArrayList<Partition<S>> (_partitions.size ());
+      for (final Map.Entry<Object, List<History.Operation>> partition : _partitions.entrySet ()) {
+        tasks.add (new Partition<S> (partition.getKey (), partition.getValue (), _specification));
+      }
+      invokeAll (tasks);
+      for (final Partition<S> task : tasks) {
+        final List<History.Operation> violation = task.join ();
+        if (violation != null) {
+          return violation;
+        }
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * Checks a history, returning the operations that cannot be linearized.
+   * 
+   * @param <S>
+   *          The state type
+   * @param history
+   *          The history to check, not {@code null}.
+   * @param specification
+   *          The sequential specification, not {@code null}.
+   * @return The shortest non-linearizable prefix of the first failing partition, or {@code null}
+   *         if the history is linearizable.
+   */
+  public static <S> List<History.Operation> violation (final History history,
+      final Specification<S> specification) {
+    final Map<Object, List<History.Operation>> partitions =
+        new HashMap<Object, List<History.Operation>> ();
+    for (final History.Operation operation : history.operations ()) {
+      List<History.Operation> partition = partitions.get (operation.getKey ());
+      if (partition == null) {
+        partition = new ArrayList<History.Operation> ();
+        partitions.put (operation.getKey (), partition);
+      }
+      partition.add (operation);
+    }
+    final ForkJoinPool pool = new ForkJoinPool ();
+    try {
+      return pool.invoke (new Partitions<S> (partitions, specification));
+    } finally {
+      pool.shutdown ();
+    }
+  }
+
+  /**
+   * Asserts a history is linearizable.
+   * 
+   * @param <S>
+   *          The state type
+   * @param history
+   *          The history to check, not {@code null}.
+   * @param specification
+   *          The sequential specification, not {@code null}.
+   * @throws AssertionError
+   *           if the history cannot be linearized, listing the shortest failing sub-history
+   */
+  public static <S> void check (final History history, final Specification<S> specification) {
+    final List<History.Operation> violation = violation (history, specification);
+    if (violation != null) {
+      final StringBuilder sb = new StringBuilder ("History is not linearizable:");
+      for (final History.Operation operation : violation) {
+        sb.append ("\n  ").append (operation);
+      }
+      throw new AssertionError (sb.toString ());
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,419 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics from {@link Threads} and {@link Wait}, published as platform MBeans so that long
+ * running suites can be watched with a JMX console. Publishing is enabled by setting the
+ * {@value #ENABLED_PROPERTY} system property to {@code true}, for example:
+ * 
+ * <pre>
+ * mvn test -DargLine=-Duk.co.beerdragon.junit.Metrics.enabled=true
+ * </pre>
+ * 
+ * A single {@link WaitMXBean} named {@code uk.co.beerdragon.junit:type=Wait} is registered. Each
+ * {@link Threads} instance registers a {@link ThreadsMXBean} named
+ * {@code uk.co.beerdragon.junit:type=Threads,id=}<i>n</i> while it is running tests.
+ * <p>
+ * The counters are striped so that updating them from many threads does not add contention.
+ */
+public final class Metrics {
+
+  /**
+   * System property enabling the MBeans.
+   */
+  public static final String ENABLED_PROPERTY = "uk.co.beerdragon.junit.Metrics.enabled";
+
+  /**
+   * Domain of the MBean names.
+   */
+  public static final String DOMAIN = "uk.co.beerdragon.junit";
+
+  private static final Logger LOGGER = Logger.getLogger (Metrics.class.getName ());
+
+  private static final AtomicInteger IDENTIFIERS = new AtomicInteger ();
+
+  private static final WaitMetrics WAIT = new WaitMetrics ();
+
+  private static volatile boolean _enabled;
+
+  static {
+    if (Boolean.getBoolean (ENABLED_PROPERTY)) {
+      enable ();
+    }
+  }
+
+  /**
+   * Metrics of a {@link Threads} instance.
+   */
+  public interface ThreadsMXBean {
+
+    /**
+     * Returns the names of the tests currently running.
+     * 
+     * @return The test names, never {@code null}.
+     */
+    String[] getTests ();
+
+    /**
+     * Returns the number of tasks submitted.
+     * 
+     * @return The count, zero or more.
+     */
+    long getTasksSubmitted ();
+
+    /**
+     * Returns the number of tasks currently running.
+     * 
+     * @return The count, zero or more.
+     */
+    long getTasksRunning ();
+
+    /**
+     * Returns the number of tasks that have failed.
+     * 
+     * @return The count, zero or more.
+     */
+    long getTasksFailed ();
+
+    /**
+     * Returns the number of worker threads currently alive.
+     * 
+     * @return The count, zero or more.
+     */
+    long getActiveWorkers ();
+
+  }
+
+  /**
+   * Metrics of the {@link Wait} helpers.
+   */
+  public interface WaitMXBean {
+
+    /**
+     * Returns the number of waits started.
+     * 
+     * @return The count, zero or more.
+     */
+    long getWaits ();
+
+    /**
+     * Returns the number of waits that timed out.
+     * 
+     * @return The count, zero or more.
+     */
+    long getTimeouts ();
+
+    /**
+     * Returns the number of waits in progress.
+     * 
+     * @return The count, zero or more.
+     */
+    int getWaitsInProgress ();
+
+    /**
+     * Returns the time the longest wait in progress has taken so far.
+     * 
+     * @return The time in milliseconds, zero if there are no waits in progress.
+     */
+    long getLongestWaitInProgress ();
+
+    /**
+     * Describes the waits in progress, giving the helper used, the thread waiting and the time
+     * taken so far.
+     * 
+     * @return A description of each wait, never {@code null}.
+     */
+    String[] getWaitsInProgressDetail ();
+
+  }
+
+  /**
+   * Counters of a {@link Threads} instance.
+   */
+  /* package */static final class ThreadsMetrics implements ThreadsMXBean {
+
+    private final ObjectName _name;
+
+    private final List<String> _tests = new ArrayList<String> ();
+
+    private final StripedCounter _submitted = new StripedCounter ();
+
+    private final StripedCounter _running = new StripedCounter ();
+
+    private final StripedCounter _failed = new StripedCounter ();
+
+    private final StripedCounter _workers = new StripedCounter ();
+
+    /* package */ThreadsMetrics () {
+      _name = name ("type=Threads,id=" + IDENTIFIERS.incrementAndGet ());
+    }
+
+    /**
+     * Notes a test starting, registering the MBean if it is the only test running.
+     */
+    /* package */void testStarted (final String test) {
+      synchronized (_tests) {
+        _tests.add (test);
+        if (_tests.size () == 1) {
+          register (this, _name);
+        }
+      }
+    }
+
+    /**
+     * Notes a test finishing, unregistering the MBean if no other tests are running.
+     */
+    /* package */void testFinished (final String test) {
+      synchronized (_tests) {
+        _tests.remove (test);
+        if (_tests.isEmpty ()) {
+          unregister (_name);
+        }
+      }
+    }
+
+    /* package */void taskSubmitted () {
+      _submitted.increment ();
+    }
+
+    /* package */void taskStarted () {
+      _running.increment ();
+    }
+
+    /* package */void taskFinished (final boolean failed) {
+      _running.decrement ();
+      if (failed) {
+        _failed.increment ();
+      }
+    }
+
+    /* package */void workerStarted () {
+      _workers.increment ();
+    }
+
+    /* package */void workerFinished () {
+      _workers.decrement ();
+    }
+
+    // ThreadsMXBean
+
+    @Override
+    public String[] getTests () {
+      synchronized (_tests) {
+        return _tests.toArray (new String[_tests.size ()]);
+      }
+    }
+
+    @Override
+    public long getTasksSubmitted () {
+      return _submitted.sum ();
+    }
+
+    @Override
+    public long getTasksRunning () {
+      return _running.sum ();
+    }
+
+    @Override
+    public long getTasksFailed () {
+      return _failed.sum ();
+    }
+
+    @Override
+    public long getActiveWorkers () {
+      return _workers.sum ();
+    }
+
+  }
+
+  /**
+   * A call to one of the {@link Wait} helpers.
+   */
+  private static final class WaitCall {
+
+    private final String _helper;
+
+    private final String _thread = Thread.currentThread ().getName ();
+
+    private final long _start = System.nanoTime ();
+
+    public WaitCall (final String helper) {
+      _helper = helper;
+    }
+
+    public long elapsed () {
+      return TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - _start);
+    }
+
+    @Override
+    public String toString () {
+      return _helper + " on " + _thread + " for " + elapsed () + "ms";
+    }
+
+  }
+
+  /**
+   * Counters of the {@link Wait} helpers.
+   */
+  /* package */static final class WaitMetrics implements WaitMXBean {
+
+    private final StripedCounter _waits = new StripedCounter ();
+
+    private final StripedCounter _timeouts = new StripedCounter ();
+
+    private final Set<WaitCall> _inProgress = Collections
+        .newSetFromMap (new ConcurrentHashMap<WaitCall, Boolean> ());
+
+    // WaitMXBean
+
+    @Override
+    public long getWaits () {
+      return _waits.sum ();
+    }
+
+    @Override
+    public long getTimeouts () {
+      return _timeouts.sum ();
+    }
+
+    @Override
+    public int getWaitsInProgress () {
+      return _inProgress.size ();
+    }
+
+    @Override
+    public long getLongestWaitInProgress () {
+      long longest = 0;
+      for (final WaitCall call : _inProgress) {
+        longest = Math.max (longest, call.elapsed ());
+      }
+      return longest;
+    }
+
+    @Override
+    public String[] getWaitsInProgressDetail () {
+      final List<String> detail = new ArrayList<String> ();
+      for (final WaitCall call : _inProgress) {
+        detail.add (call.toString ());
+      }
+      return detail.toArray (new String[detail.size ()]);
+    }
+
+  }
+
+  /**
+   * Prevents instantiation.
+   */
+  private Metrics () {
+  }
+
+  private static ObjectName name (final String properties) {
+    try {
+      return new ObjectName (DOMAIN + ":" + properties);
+    } catch (final JMException e) {
+      throw new IllegalArgumentException (e);
+    }
+  }
+
+  private static void register (final Object mbean, final ObjectName name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer ().registerMBean (mbean, name);
+    } catch (final JMException e) {
+      LOGGER.log (Level.WARNING, "Couldn't register " + name, e);
+    }
+  }
+
+  private static void unregister (final ObjectName name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer ().unregisterMBean (name);
+    } catch (final JMException e) {
+      LOGGER.log (Level.WARNING, "Couldn't unregister " + name, e);
+    }
+  }
+
+  /**
+   * Enables the MBeans, registering the {@link WaitMXBean} if not already registered.
+   * <p>
+   * Package visible for testing.
+   */
+  /* package */static synchronized void enable () {
+    if (!_enabled) {
+      register (WAIT, name ("type=Wait"));
+      _enabled = true;
+    }
+  }
+
+  /**
+   * Returns the {@link Wait} metrics.
+   * <p>
+   * Package visible for testing.
+   * 
+   * @return The metrics, never {@code null}.
+   */
+  /* package */static WaitMetrics waits () {
+    return WAIT;
+  }
+
+  /**
+   * Creates the metrics for a {@link Threads} instance.
+   * 
+   * @return The metrics, or {@code null} if not enabled.
+   */
+  /* package */static ThreadsMetrics threads () {
+    return _enabled ? new ThreadsMetrics () : null;
+  }
+
+  /**
+   * Notes the start of a call to a {@link Wait} helper.
+   * 
+   * @param helper
+   *          The name of the helper, not {@code null}.
+   * @return The token to pass to {@link #waitFinished}, or {@code null} if not enabled.
+   */
+  /* package */static Object waitStarted (final String helper) {
+    if (!_enabled) {
+      return null;
+    }
+    final WaitCall call = new WaitCall (helper);
+    WAIT._waits.increment ();
+    WAIT._inProgress.add (call);
+    return call;
+  }
+
+  /**
+   * Notes the end of a call to a {@link Wait} helper.
+   * 
+   * @param call
+   *          The token returned by {@link #waitStarted}, possibly {@code null}.
+   * @param timedOut
+   *          True if the wait ended because its time limit passed.
+   */
+  /* package */static void waitFinished (final Object call, final boolean timedOut) {
+    if (call != null) {
+      WAIT._inProgress.remove (call);
+      if (timedOut) {
+        WAIT._timeouts.increment ();
+      }
+    }
+  }
+
+}
\ No newline at end of file
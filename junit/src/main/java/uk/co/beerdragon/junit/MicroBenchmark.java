@@ -0,0 +1,519 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Rule for running light-weight throughput and latency measurements as part of a unit test. For
+ * example:
+ * 
+ * <pre class="code java">
+ * <span class="k">public class</span> <span class="i">QueuePerformance</span> {
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ();
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">MicroBenchmark benchmark</span> = <span class="k">new</span> <span class="i">MicroBenchmark</span> (<span class="i">threads</span>);
+ * 
+ *  <span class="i">&#064;Test</span>
+ *  <span class="k">public void</span> <span class="i">testOffer</span> () {
+ *    <span class="i">benchmark</span>.<span class="i">threads</span> (<span class="l">4</span>).<span class="i">run</span> (<span class="l">"offer"</span>, <span class="k">new</span> <span class="i">Runnable</span> () {
+ *      <span class="c">// ...</span>
+ *    }).<span class="i">assertOpsPerSecond</span> (<span class="l">1e6</span>).<span class="i">assertP99</span> (<span class="l">10</span>, <span class="i">TimeUnit</span>.<span class="i">MICROSECONDS</span>);
+ *  }
+ * }
+ * </pre>
+ * 
+ * Each measurement consists of a warm-up phase followed by a measurement phase in which every
+ * invocation of the block is timed. Both phases, on all threads, share one {@link Wait#maxWait}
+ * time budget: warm-up stops after half of it and measurement ends with it, so a slow build agent
+ * results in fewer iterations rather than a hung build. Results are appended to a tab separated
+ * file per test class so that trends can be compared across builds; the directory can be set with
+ * the {@value #DIRECTORY_PROPERTY} system property.
+ */
+public class MicroBenchmark implements TestRule {
+
+  /**
+   * System property giving the directory results are written to.
+   */
+  public static final String DIRECTORY_PROPERTY = "uk.co.beerdragon.junit.MicroBenchmark.dir";
+
+  private static final String DEFAULT_DIRECTORY = "target/microbenchmarks";
+
+  /**
+   * Serializes writes to the results files from concurrently running tests.
+   */
+  private static final Object FILE_LOCK = new Object ();
+
+  private final Threads _threads;
+
+  private final File _directory;
+
+  private final Logger _logger;
+
+  private volatile Description _description;
+
+  private int _warmUp = 1000;
+
+  private int _iterations = 10000;
+
+  private int _threadCount = 1;
+
+  /**
+   * Creates a new instance that can only run measurements on the test thread.
+   */
+  public MicroBenchmark () {
+    this (null);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param threads
+   *          The rule to launch worker threads with, or {@code null} if measurements will only be
+   *          made on the test thread.
+   */
+  public MicroBenchmark (final Threads threads) {
+    this (threads, new File (System.getProperty (DIRECTORY_PROPERTY, DEFAULT_DIRECTORY)), Logger
+        .getLogger (MicroBenchmark.class.getName ()));
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param threads
+   *          The rule to launch worker threads with, or {@code null} if measurements will only be
+   *          made on the test thread.
+   * @param directory
+   *          The directory to write results to, not {@code null}.
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public MicroBenchmark (final Threads threads, final File directory, final Logger logger) {
+    _threads = threads;
+    _directory = directory;
+    _logger = logger;
+  }
+
+  /**
+   * Sets the number of untimed invocations each thread makes before measurement starts.
+   * 
+   * @param iterations
+   *          The number of warm-up invocations, zero or more.
+   * @return This instance, for chaining.
+   */
+  public MicroBenchmark warmUp (final int iterations) {
+    assert iterations >= 0;
+    _warmUp = iterations;
+    return this;
+  }
+
+  /**
+   * Sets the number of timed invocations each thread makes.
+   * 
+   * @param iterations
+   *          The number of measured invocations, one or more.
+   * @return This instance, for chaining.
+   */
+  public MicroBenchmark iterations (final int iterations) {
+    assert iterations > 0;
+    _iterations = iterations;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads that will invoke the block concurrently. More than one thread
+   * requires a {@link Threads} rule to have been given at construction.
+   * 
+   * @param count
+   *          The number of threads, one or more.
+   * @return This instance, for chaining.
+   */
+  public MicroBenchmark threads (final int count) {
+    assert count > 0;
+    if ((count > 1) && (_threads == null)) {
+      throw new IllegalStateException ("No Threads rule to launch workers with");
+    }
+    _threadCount = count;
+    return this;
+  }
+
+  /**
+   * Runs the phases of a single worker.
+   */
+  private static final class Worker implements Runnable {
+
+    private final Runnable _block;
+
+    private final int _warmUp;
+
+    private final int _iterations;
+
+    private final CyclicBarrier _barrier;
+
+    private final long _warmUpDeadline;
+
+    private final long _deadline;
+
+    private final Histogram _latency = new Histogram ();
+
+    private long _start;
+
+    private long _end;
+
+    private boolean _exhausted;
+
+    private Throwable _failure;
+
+    public Worker (final Runnable block, final int warmUp, final int iterations,
+        final CyclicBarrier barrier, final long warmUpDeadline, final long deadline) {
+      _block = block;
+      _warmUp = warmUp;
+      _iterations = iterations;
+      _barrier = barrier;
+      _warmUpDeadline = warmUpDeadline;
+      _deadline = deadline;
+    }
+
+    @Override
+    public void run () {
+      try {
+        measure ();
+      } catch (RuntimeException | Error e) {
+        _failure = e;
+        if (_barrier != null) {
+          breakBarrier ();
+        }
+        throw e;
+      }
+    }
+
+    /**
+     * Breaks the barrier, so the other workers give up at it rather than time out. A timed out wait
+     * leaves it broken for those that arrive later, unlike {@link CyclicBarrier#reset}.
+     */
+    private void breakBarrier () {
+      try {
+        _barrier.await (0, TimeUnit.NANOSECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread ().interrupt ();
+      } catch (final BrokenBarrierException | TimeoutException e) {
+        // Broken
+      }
+    }
+
+    private void measure () {
+      for (int i = 0; i < _warmUp; i++) {
+        _block.run ();
+        if (System.nanoTime () - _warmUpDeadline > 0) {
+          _exhausted = true;
+          break;
+        }
+      }
+      if (_barrier != null) {
+        try {
+          Wait.barrier (_barrier);
+        } catch (final AssertionError e) {
+          if (e.getCause () instanceof BrokenBarrierException) {
+            // Another worker failed, and will report it
+            return;
+          }
+          throw e;
+        }
+      }
+      long time = System.nanoTime ();
+      _start = time;
+      for (int i = 0; i < _iterations; i++) {
+        _block.run ();
+        final long now = System.nanoTime ();
+        _latency.record (now - time);
+        time = now;
+        if (now - _deadline > 0) {
+          _exhausted = true;
+          break;
+        }
+      }
+      _end = time;
+    }
+
+  }
+
+  /**
+   * Runs a measurement.
+   * 
+   * @param name
+   *          The name of the measurement, used in the results file, not {@code null}.
+   * @param block
+   *          The operation to measure, not {@code null}.
+   * @return The result, never {@code null}.
+   */
+  public Result run (final String name, final Runnable block) {
+    final Description description = _description;
+    assert description != null;
+    final Worker[] workers = new Worker[_threadCount];
+    // One budget for both phases and all workers, so it ends before the wait for them does
+    final long budget = TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ());
+    final long warmUpDeadline = System.nanoTime () + budget / 2;
+    final long deadline = warmUpDeadline + budget - budget / 2;
+    if (workers.length == 1) {
+      workers[0] = new Worker (block, _warmUp, _iterations, null, warmUpDeadline, deadline);
+      workers[0].run ();
+    } else {
+      final CyclicBarrier barrier = new CyclicBarrier (workers.length);
+      final CountDownLatch complete = new CountDownLatch (workers.length);
+      for (int i = 0; i < workers.length; i++) {
+        final Worker worker = new Worker (block, _warmUp, _iterations, barrier, warmUpDeadline,
+            deadline);
+        workers[i] = worker;
+        _threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            try {
+              worker.run ();
+            } finally {
+              complete.countDown ();
+            }
+          }
+
+          @Override
+          public String toString () {
+            return name;
+          }
+
+        });
+      }
+      Wait.latch (complete);
+      for (final Worker worker : workers) {
+        if (worker._failure instanceof Error) {
+          throw (Error)worker._failure;
+        } else if (worker._failure != null) {
+          throw (RuntimeException)worker._failure;
+        }
+      }
+    }
+    final Histogram latency = new Histogram ();
+    long start = workers[0]._start;
+    long end = workers[0]._end;
+    for (final Worker worker : workers) {
+      latency.merge (worker._latency);
+      if (worker._start - start < 0) start = worker._start;
+      if (worker._end - end > 0) end = worker._end;
+      if (worker._exhausted) {
+        _logger.warning ("Time budget exhausted running " + name + " after "
+            + worker._latency.count () + " iterations");
+      }
+    }
+    final Result result = new Result (name, workers.length, latency, end - start);
+    _logger.info (name + ": " + result);
+    write (description, result);
+    return result;
+  }
+
+  private void write (final Description description, final Result result) {
+    final String className = description.getClassName ();
+    final File file = new File (_directory, ((className != null) ? className : "unknown") + ".tsv");
+    final StringBuilder sb = new StringBuilder ();
+    sb.append (System.currentTimeMillis ()).append ('\t').append (description.getMethodName ())
+        .append ('\t').append (result.name ()).append ('\t').append (result.threads ())
+        .append ('\t').append (result.latency ().count ()).append ('\t')
+        .append (result.elapsedNanos ()).append ('\t').append ((long)result.opsPerSecond ())
+        .append ('\t').append (result.percentile (50)).append ('\t')
+        .append (result.percentile (90)).append ('\t').append (result.percentile (99))
+        .append ('\t').append (result.latency ().max ()).append ('\n');
+    synchronized (FILE_LOCK) {
+      try {
+        _directory.mkdirs ();
+        try (Writer writer = new FileWriter (file, true)) {
+          writer.write (sb.toString ());
+        }
+      } catch (final IOException e) {
+        _logger.log (Level.WARNING, "Couldn't write results to " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Outcome of a measurement, with assertion methods for regression checks.
+   */
+  public static final class Result {
+
+    private final String _name;
+
+    private final int _threads;
+
+    private final Histogram _latency;
+
+    private final long _elapsedNanos;
+
+    private Result (final String name, final int threads, final Histogram latency,
+        final long elapsedNanos) {
+      _name = name;
+      _threads = threads;
+      _latency = latency;
+      _elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the name of the measurement.
+     * 
+     * @return The name, never {@code null}.
+     */
+    public String name () {
+      return _name;
+    }
+
+    /**
+     * Returns the number of threads the measurement ran on.
+     * 
+     * @return The thread count.
+     */
+    public int threads () {
+      return _threads;
+    }
+
+    /**
+     * Returns the per-invocation latency, in nanoseconds.
+     * 
+     * @return The latency histogram, never {@code null}.
+     */
+    public Histogram latency () {
+      return _latency;
+    }
+
+    /**
+     * Returns the elapsed time of the measurement phase across all threads.
+     * 
+     * @return The elapsed time, in nanoseconds.
+     */
+    public long elapsedNanos () {
+      return _elapsedNanos;
+    }
+
+    /**
+     * Returns the combined throughput of all threads.
+     * 
+     * @return The number of invocations per second.
+     */
+    public double opsPerSecond () {
+      if (_elapsedNanos <= 0) {
+        return Double.POSITIVE_INFINITY;
+      }
+      return (_latency.count () * 1e9) / _elapsedNanos;
+    }
+
+    /**
+     * Returns an upper bound for a latency percentile.
+     * 
+     * @param percentile
+     *          The percentile, between 0 and 100.
+     * @return The latency, in nanoseconds.
+     */
+    public long percentile (final double percentile) {
+      return _latency.percentile (percentile);
+    }
+
+    /**
+     * Asserts a minimum throughput.
+     * 
+     * @param minimum
+     *          The minimum number of invocations per second.
+     * @return This instance, for chaining.
+     * @throws AssertionError
+     *           if the throughput was lower
+     */
+    public Result assertOpsPerSecond (final double minimum) {
+      final double ops = opsPerSecond ();
+      if (ops < minimum) {
+        throw new AssertionError (_name + " achieved " + (long)ops + " ops/sec, expected at least "
+            + (long)minimum);
+      }
+      return this;
+    }
+
+    /**
+     * Asserts a maximum latency at a given percentile.
+     * 
+     * @param percentile
+     *          The percentile, between 0 and 100.
+     * @param maximum
+     *          The maximum latency.
+     * @param unit
+     *          The unit of {@code maximum}, not {@code null}.
+     * @return This instance, for chaining.
+     * @throws AssertionError
+     *           if the latency was higher
+     */
+    public Result assertPercentile (final double percentile, final long maximum,
+        final TimeUnit unit) {
+      final long latency = percentile (percentile);
+      if (latency > unit.toNanos (maximum)) {
+        throw new AssertionError (_name + " p" + percentile + " latency was " + latency
+            + "ns, expected at most " + unit.toNanos (maximum) + "ns");
+      }
+      return this;
+    }
+
+    /**
+     * Asserts a maximum 99th percentile latency.
+     * 
+     * @param maximum
+     *          The maximum latency.
+     * @param unit
+     *          The unit of {@code maximum}, not {@code null}.
+     * @return This instance, for chaining.
+     * @throws AssertionError
+     *           if the latency was higher
+     */
+    public Result assertP99 (final long maximum, final TimeUnit unit) {
+      return assertPercentile (99, maximum, unit);
+    }
+
+    // Object
+
+    @Override
+    public String toString () {
+      return _threads + " thread(s), " + (long)opsPerSecond () + " ops/sec, " + _latency;
+    }
+
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        _description = description;
+        try {
+          stmt.evaluate ();
+        } finally {
+          _description = null;
+        }
+      }
+    };
+  }
+
+}
\ No newline at end of file
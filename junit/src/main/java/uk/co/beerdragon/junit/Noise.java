@@ -0,0 +1,241 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Seeded scheduling noise to make races in concurrent tests more likely to show. For example:
+ * 
+ * <pre class="code java">
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ().<span class="i">noise</span> (<span class="k">new</span> <span class="i">Noise</span> (<span class="l">0.5</span>));
+ * 
+ *  <span class="i">&#064;Test</span>
+ *  <span class="k">public void</span> <span class="i">testRace</span> () {
+ *    <span class="i">threads</span>.<span class="i">start</span> (<span class="k">new</span> <span class="i">Runnable</span> () {
+ *      <span class="c">// ...</span>
+ *      <span class="k">final int</span> <span class="i">value</span> = <span class="i">shared</span>.<span class="i">get</span> ();
+ *      <span class="i">Noise</span>.<span class="i">point</span> ();
+ *      <span class="i">shared</span>.<span class="i">set</span> (<span class="i">value</span> + <span class="l">1</span>);
+ *    });
+ *  }
+ * </pre>
+ * 
+ * Noise is applied at the start of every task launched by the {@link Threads} rule, at any
+ * {@link #point} placed by the test and optionally around the {@link Wait} primitives. At each of
+ * these points the thread will, with a probability given by the intensity, yield, spin briefly or
+ * park for a few microseconds. Threads that are not part of a test using noise pay only for a
+ * thread local lookup at each point.
+ * <p>
+ * Each thread draws its decisions from its own generator, derived from the seed and the order in
+ * which the thread was created, so the decisions of a failing run can be replayed by setting the
+ * {@value #SEED_PROPERTY} system property to the seed reported with the failure. The operating
+ * system scheduler is not under the control of the test so a replay makes the failure more likely,
+ * rather than certain, to recur.
+ */
+public final class Noise {
+
+  /**
+   * System property giving the seed to use for instances not given one explicitly.
+   */
+  public static final String SEED_PROPERTY = "uk.co.beerdragon.junit.Noise.seed";
+
+  private static final int MAX_SPIN = 1000;
+
+  private static final long MAX_PARK_NANOS = 50000;
+
+  /**
+   * The noise source for the current thread, if any.
+   */
+  private static final ThreadLocal<Source> CURRENT = new ThreadLocal<Source> ();
+
+  /**
+   * Read on each iteration of a spin so that the loop cannot be optimized away.
+   */
+  private static volatile boolean _spin;
+
+  private final long _seed;
+
+  private final double _intensity;
+
+  private volatile boolean _aroundWaits;
+
+  /**
+   * Creates a new instance with a seed taken from the {@value #SEED_PROPERTY} system property, or
+   * chosen at random if that is not set.
+   * 
+   * @param intensity
+   *          The probability of a disturbance at each point, between 0 and 1.
+   */
+  public Noise (final double intensity) {
+    this (defaultSeed (), intensity);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param seed
+   *          The seed to derive the decisions of each thread from.
+   * @param intensity
+   *          The probability of a disturbance at each point, between 0 and 1.
+   */
+  public Noise (final long seed, final double intensity) {
+    assert (intensity >= 0) && (intensity <= 1);
+    _seed = seed;
+    _intensity = intensity;
+  }
+
+  private static long defaultSeed () {
+    final String seed = System.getProperty (SEED_PROPERTY);
+    if (seed != null) {
+      return Long.parseLong (seed);
+    }
+    return new Random ().nextLong ();
+  }
+
+  /**
+   * Enables noise immediately before and after each call to a {@link Wait} primitive.
+   * 
+   * @return This instance, for chaining.
+   */
+  public Noise aroundWaits () {
+    _aroundWaits = true;
+    return this;
+  }
+
+  /**
+   * Returns the seed.
+   * 
+   * @return The seed.
+   */
+  public long getSeed () {
+    return _seed;
+  }
+
+  /**
+   * Returns the intensity.
+   * 
+   * @return The probability of a disturbance at each point.
+   */
+  public double getIntensity () {
+    return _intensity;
+  }
+
+  /**
+   * Disturbance decisions for a single thread.
+   */
+  /* package */static final class Source {
+
+    /* package */static final int NONE = 0;
+
+    /* package */static final int YIELD = 1;
+
+    /* package */static final int SPIN = 2;
+
+    /* package */static final int PARK = 3;
+
+    private final Noise _noise;
+
+    private final Random _random;
+
+    private int _amount;
+
+    /* package */Source (final Noise noise, final int thread) {
+      _noise = noise;
+      _random = new Random (noise._seed + thread * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Chooses the next disturbance.
+     * 
+     * @return One of {@link #NONE}, {@link #YIELD}, {@link #SPIN} or {@link #PARK}.
+     */
+    /* package */int next () {
+      if (_random.nextDouble () >= _noise._intensity) {
+        return NONE;
+      }
+      final int choice = _random.nextInt (10);
+      if (choice < 5) {
+        return YIELD;
+      } else if (choice < 8) {
+        _amount = 1 + _random.nextInt (MAX_SPIN);
+        return SPIN;
+      } else {
+        _amount = 1 + _random.nextInt ((int)MAX_PARK_NANOS);
+        return PARK;
+      }
+    }
+
+    /* package */void disturb () {
+      switch (next ()) {
+        case YIELD:
+          Thread.yield ();
+          break;
+        case SPIN:
+          for (int i = _amount; (i > 0) && !_spin; i--) {
+            Platform.onSpinWait ();
+          }
+          break;
+        case PARK:
+          LockSupport.parkNanos (_amount);
+          break;
+        default:
+          break;
+      }
+    }
+
+  }
+
+  /**
+   * Associates the noise with the current thread.
+   * 
+   * @param thread
+   *          The position of the thread within the test, 0 for the test thread.
+   */
+  /* package */void enter (final int thread) {
+    CURRENT.set (new Source (this, thread));
+  }
+
+  /**
+   * Removes any noise associated with the current thread.
+   */
+  /* package */static void exit () {
+    CURRENT.remove ();
+  }
+
+  /**
+   * Instrumentation point. If the current thread is running with noise it may be delayed, otherwise
+   * this does nothing.
+   */
+  public static void point () {
+    final Source source = CURRENT.get ();
+    if (source != null) {
+      source.disturb ();
+    }
+  }
+
+  /**
+   * Instrumentation point used by {@link Wait}, only active if {@link #aroundWaits} was set.
+   */
+  /* package */static void waitPoint () {
+    final Source source = CURRENT.get ();
+    if ((source != null) && source._noise._aroundWaits) {
+      source.disturb ();
+    }
+  }
+
+  // Object
+
+  @Override
+  public String toString () {
+    return "Noise seed " + _seed + " at intensity " + _intensity + " (replay with -D"
+        + SEED_PROPERTY + "=" + _seed + ")";
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Runner that executes the test methods of a class concurrently. For example:
+ * 
+ * <pre class="code java">
+ * <span class="i">&#064;RunWith</span> (<span class="i">ParallelRunner</span>.<span class="k">class</span>)
+ * <span class="k">public class</span> <span class="i">IndependentTests</span> {
+ *   <span class="c">// ...</span>
+ * }
+ * </pre>
+ * 
+ * At most one method runs per available processor, unless a different budget is given by the
+ * {@value #THREADS_PROPERTY} system property. Each method has its own instance of the class, and so
+ * of its rules, as with the standard runner. The methods must not depend on each other or on
+ * mutable static state.
+ */
+public class ParallelRunner extends BlockJUnit4ClassRunner {
+
+  /**
+   * System property giving the maximum number of test methods to run at once.
+   */
+  public static final String THREADS_PROPERTY = "uk.co.beerdragon.junit.ParallelRunner.threads";
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param klass
+   *          The test class, not {@code null}.
+   * @throws InitializationError
+   *           if the test class is malformed
+   */
+  public ParallelRunner (final Class<?> klass) throws InitializationError {
+    super (klass);
+    setScheduler (scheduler (klass.getSimpleName (), threads ()));
+  }
+
+  /**
+   * Returns the maximum number of test methods to run at once.
+   * 
+   * @return The number of threads, one or more.
+   */
+  /* package */static int threads () {
+    return Math.max (1, Integer.getInteger (THREADS_PROPERTY, Runtime.getRuntime ()
+        .availableProcessors ()));
+  }
+
+  /**
+   * Creates a scheduler that runs children concurrently on a fixed number of threads.
+   * 
+   * @param name
+   *          The prefix for the names of the threads, not {@code null}.
+   * @param threads
+   *          The maximum number of children to run at once, one or more.
+   * @return The scheduler, never {@code null}.
+   */
+  public static RunnerScheduler scheduler (final String name, final int threads) {
+    final ExecutorService service = Executors.newFixedThreadPool (threads, new ThreadFactory () {
+
+      private final ThreadFactory _default = Executors.defaultThreadFactory ();
+
+      private final AtomicInteger _count = new AtomicInteger ();
+
+      @Override
+      public Thread newThread (final Runnable r) {
+        final Thread thread = _default.newThread (r);
+        thread.setName (name + "-parallel-" + _count.incrementAndGet ());
+        return thread;
+      }
+
+    });
+    return new RunnerScheduler () {
+
+      @Override
+      public void schedule (final Runnable childStatement) {
+        service.execute (childStatement);
+      }
+
+      @Override
+      public void finished () {
+        service.shutdown ();
+        try {
+          // Each test is responsible for its own time limits
+          service.awaitTermination (Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+          service.shutdownNow ();
+          Thread.currentThread ().interrupt ();
+        }
+      }
+
+    };
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Operations with faster implementations on newer JVMs. This is the Java 7 implementation; the
+ * helpers-junit JAR is multi-release and contains a replacement for Java 9 and later.
+ */
+/* package */final class Platform {
+
+  /**
+   * System property that, when {@code true}, makes {@link #threadFactory} create virtual threads on
+   * JVMs that support them. Contention monitoring and {@link Profiler} do not see virtual threads.
+   */
+  /* package */static final String VIRTUAL_THREADS_PROPERTY =
+      "uk.co.beerdragon.junit.Platform.virtualThreads";
+
+  /**
+   * Prevents instantiation.
+   */
+  private Platform () {
+  }
+
+  /**
+   * Returns the name of the implementation in use.
+   * 
+   * @return The name, never {@code null}.
+   */
+  /* package */static String name () {
+    return "java7";
+  }
+
+  /**
+   * Captures the stack of the calling thread.
+   * 
+   * @return The stack, starting with the method that called this one.
+   */
+  /* package */static StackTraceElement[] stack () {
+    final StackTraceElement[] stack = Thread.currentThread ().getStackTrace ();
+    int start = 0;
+    while ((start < stack.length)
+        && !Platform.class.getName ().equals (stack[start].getClassName ())) {
+      start++;
+    }
+    return Arrays.copyOfRange (stack, Math.min (start + 1, stack.length), stack.length);
+  }
+
+  /**
+   * Hints that the caller is in a spin loop.
+   */
+  /* package */static void onSpinWait () {
+    // No hint available
+  }
+
+  /**
+   * Returns a factory for the worker threads of the {@link Threads} rule.
+   * 
+   * @return The factory, never {@code null}.
+   */
+  /* package */static ThreadFactory threadFactory () {
+    return Executors.defaultThreadFactory ();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,682 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+/**
+ * Rule for child JVMs that will be terminated at the end of a test. For example:
+ * 
+ * <pre class="code java">
+ * <span class="k">public class</span> <span class="i">UsesChildProcesses</span> {
+ * 
+ *  <span class="k">public static class</span> <span class="i">Writer</span> <span class="k">implements</span> <span class="i">Processes</span>.<span class="i">Entry</span> {
+ *    <span class="k">public void</span> <span class="i">run</span> (<span class="i">Processes</span>.<span class="i">Channel channel</span>, <span class="i">String</span>... <span class="i">args</span>) {
+ *      <span class="c">// ...</span>
+ *      <span class="i">channel</span>.<span class="i">send</span> (<span class="i">elapsed</span>);
+ *    }
+ *  }
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Processes processes</span> = <span class="k">new</span> <span class="i">Processes</span> ();
+ * 
+ *  <span class="i">&#064;Test</span>
+ *  <span class="k">public void</span> <span class="i">testSharedFile</span> () {
+ *    <span class="k">for</span> (<span class="i">Processes</span>.<span class="i">Child child</span> : <span class="i">processes</span>.<span class="i">start</span> (<span class="l">4</span>, <span class="i">Writer</span>.<span class="k">class</span>, <span class="i">path</span>)) {
+ *      <span class="i">elapsed</span> += (<span class="i">Long</span>)<span class="i">child</span>.<span class="i">receive</span> ();
+ *    }
+ *  }
+ * }
+ * </pre>
+ * 
+ * Each child runs with the classpath of the test and calls the given entry point, which can send
+ * results back to the test through a local socket. Any exception thrown by the entry point, or an
+ * abnormal exit, will cause test failure. At the end of the test the children are given until the
+ * end of the {@link Wait#maxWait} time budget to complete, after which any still running are
+ * destroyed and the test fails.
+ */
+public class Processes implements TestRule {
+
+  /**
+   * Message types sent from a child.
+   */
+  private static final byte MESSAGE = 0;
+
+  private static final byte FAILURE = 1;
+
+  private static final byte DONE = 2;
+
+  /**
+   * Time allowed for the connection from a child that has exited to be accepted, and for the last
+   * of its error output to be read, in milliseconds.
+   */
+  private static final long GRACE = 1000;
+
+  /**
+   * Number of characters of error output from each child kept for a failure message.
+   */
+  private static final int STDERR_TAIL = 4096;
+
+  private final Logger _logger;
+
+  private final List<String> _jvmArguments = Collections
+      .synchronizedList (new ArrayList<String> ());
+
+  private volatile Session _session;
+
+  /**
+   * Creates a new instance.
+   */
+  public Processes () {
+    this (Logger.getLogger (Processes.class.getName ()));
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public Processes (final Logger logger) {
+    _logger = logger;
+  }
+
+  /**
+   * Adds arguments to pass to each child JVM, for example heap settings or system properties.
+   * 
+   * @param arguments
+   *          The JVM arguments, not {@code null}.
+   * @return This instance, for chaining.
+   */
+  public Processes jvmArguments (final String... arguments) {
+    _jvmArguments.addAll (Arrays.asList (arguments));
+    return this;
+  }
+
+  /**
+   * Code to run in a child JVM. Implementations must be public and have a public no-argument
+   * constructor.
+   */
+  public interface Entry {
+
+    /**
+     * Runs the child.
+     * 
+     * @param channel
+     *          The channel to the test, not {@code null}.
+     * @param args
+     *          The arguments given when the child was started.
+     * @throws Exception
+     *           to fail the test
+     */
+    void run (Channel channel, String... args) throws Exception;
+
+  }
+
+  /**
+   * Connection from a child JVM to the test.
+   */
+  public static final class Channel {
+
+    private final int _index;
+
+    private final DataOutputStream _out;
+
+    private Channel (final int index, final DataOutputStream out) {
+      _index = index;
+      _out = out;
+    }
+
+    /**
+     * Returns the position of this child among those started by the test.
+     * 
+     * @return The index, counting from 0.
+     */
+    public int getIndex () {
+      return _index;
+    }
+
+    /**
+     * Sends a value to the test, where it can be read with {@link Child#receive}. Timings taken
+     * with {@link System#nanoTime} can be compared between processes on the same Linux host.
+     * 
+     * @param value
+     *          The value to send, not {@code null}.
+     * @throws IOException
+     *           if the value could not be sent
+     */
+    public synchronized void send (final Serializable value) throws IOException {
+      write (MESSAGE, serialize (value));
+    }
+
+    private synchronized void write (final byte type, final byte[] payload) throws IOException {
+      _out.writeByte (type);
+      _out.writeInt (payload.length);
+      _out.write (payload);
+      _out.flush ();
+    }
+
+  }
+
+  private static byte[] serialize (final Object value) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+    try (final ObjectOutputStream out = new ObjectOutputStream (buffer)) {
+      out.writeObject (value);
+    }
+    return buffer.toByteArray ();
+  }
+
+  private static Object deserialize (final byte[] payload) throws IOException,
+      ClassNotFoundException {
+    try (final ObjectInputStream in = new ObjectInputStream (new ByteArrayInputStream (payload))) {
+      return in.readObject ();
+    }
+  }
+
+  /**
+   * Main class of the child JVMs.
+   */
+  /* package */static final class Bootstrap {
+
+    /**
+     * Prevents instantiation.
+     */
+    private Bootstrap () {
+    }
+
+    /**
+     * Serializes a failure, replacing it with a copy of its message and stack if it cannot be
+     * serialized.
+     */
+    private static byte[] failure (final Throwable t) throws IOException {
+      try {
+        return serialize (t);
+      } catch (final IOException e) {
+        final AssertionError copy = new AssertionError (t.toString ());
+        copy.setStackTrace (t.getStackTrace ());
+        return serialize (copy);
+      }
+    }
+
+    /**
+     * Runs an entry point.
+     * 
+     * @param args
+     *          The port of the test, the index of the child, the entry point class and its
+     *          arguments.
+     */
+    public static void main (final String[] args) throws Exception {
+      final int index = Integer.parseInt (args[1]);
+      final Socket socket = new Socket (InetAddress.getLoopbackAddress (),
+          Integer.parseInt (args[0]));
+      final DataOutputStream out = new DataOutputStream (new BufferedOutputStream (socket
+          .getOutputStream ()));
+      out.writeInt (index);
+      final Channel channel = new Channel (index, out);
+      int status = 0;
+      try {
+        final Entry entry = (Entry)Class.forName (args[2]).newInstance ();
+        entry.run (channel, Arrays.copyOfRange (args, 3, args.length));
+        channel.write (DONE, new byte[0]);
+      } catch (final Throwable t) {
+        channel.write (FAILURE, failure (t));
+        status = 1;
+      }
+      socket.close ();
+      // Stop any threads the entry point left running
+      System.exit (status);
+    }
+
+  }
+
+  /**
+   * A child JVM.
+   */
+  public static final class Child {
+
+    private final int _index;
+
+    private final String _entry;
+
+    private final Process _process;
+
+    private final BlockingQueue<Object> _messages = new LinkedBlockingQueue<Object> ();
+
+    private final CountDownLatch _exited = new CountDownLatch (1);
+
+    private final CountDownLatch _read = new CountDownLatch (1);
+
+    private final CountDownLatch _stderrClosed = new CountDownLatch (1);
+
+    private final StringBuilder _stderr = new StringBuilder ();
+
+    private volatile int _exitCode;
+
+    private volatile boolean _connected;
+
+    private volatile boolean _done;
+
+    private volatile boolean _failed;
+
+    private Child (final int index, final String entry, final Process process) {
+      _index = index;
+      _entry = entry;
+      _process = process;
+    }
+
+    /**
+     * Returns the position of this child among those started by the test.
+     * 
+     * @return The index, counting from 0.
+     */
+    public int getIndex () {
+      return _index;
+    }
+
+    /**
+     * Waits for the next value sent by the child.
+     * 
+     * @return The value, never {@code null}.
+     * @throws AssertionError
+     *           if no value was received within the {@link Wait#maxWait} time budget
+     */
+    public Object receive () {
+      return Wait.queue (_messages);
+    }
+
+    /**
+     * Waits for the child to exit.
+     * 
+     * @return The exit code of the child, 0 if the entry point completed normally.
+     * @throws AssertionError
+     *           if the child did not exit within the {@link Wait#maxWait} time budget
+     */
+    public int waitFor () {
+      Wait.latch (_exited);
+      return _exitCode;
+    }
+
+    /**
+     * Copies the error output of the child to that of the test, keeping the end of it for a
+     * failure message.
+     */
+    private void pumpStderr () {
+      final byte[] buffer = new byte[1024];
+      try (final InputStream in = _process.getErrorStream ()) {
+        int count;
+        while ((count = in.read (buffer)) >= 0) {
+          System.err.write (buffer, 0, count);
+          synchronized (_stderr) {
+            _stderr.append (new String (buffer, 0, count));
+            if (_stderr.length () > STDERR_TAIL) {
+              _stderr.delete (0, _stderr.length () - STDERR_TAIL);
+            }
+          }
+        }
+      } catch (final IOException e) {
+        // Child destroyed
+      } finally {
+        _stderrClosed.countDown ();
+      }
+    }
+
+    private String stderr () {
+      synchronized (_stderr) {
+        return _stderr.toString ().trim ();
+      }
+    }
+
+    // Object
+
+    @Override
+    public String toString () {
+      return "Child " + _index + " (" + _entry + ")";
+    }
+
+  }
+
+  /**
+   * State of the rule for the duration of a single test.
+   */
+  private final class Session {
+
+    private final String _testName;
+
+    private final Collection<Throwable> _errors;
+
+    private final ServerSocket _server;
+
+    private final List<Child> _children = Collections.synchronizedList (new ArrayList<Child> ());
+
+    public Session (final String testName, final Collection<Throwable> errors) throws IOException {
+      _testName = testName;
+      _errors = errors;
+      _server = new ServerSocket (0, 50, InetAddress.getLoopbackAddress ());
+      daemon ("accept", new Runnable () {
+
+        @Override
+        public void run () {
+          accept ();
+        }
+
+      });
+    }
+
+    private void daemon (final String name, final Runnable runnable) {
+      final Thread thread = new Thread (runnable, _testName + "-" + name);
+      thread.setDaemon (true);
+      thread.start ();
+    }
+
+    private void accept () {
+      try {
+        while (true) {
+          final Socket socket = _server.accept ();
+          // Identified on another thread, so a stray connection can't hold up the children
+          daemon ("connect", new Runnable () {
+
+            @Override
+            public void run () {
+              connect (socket);
+            }
+
+          });
+        }
+      } catch (final IOException e) {
+        // Server closed at the end of the test
+      }
+    }
+
+    /**
+     * Reads the index of the child that made a connection and then its results, dropping the
+     * connection if the index is not that of a child yet to connect.
+     */
+    private void connect (final Socket socket) {
+      final Child child;
+      final DataInputStream in;
+      try {
+        in = new DataInputStream (new BufferedInputStream (socket.getInputStream ()));
+        final int index = in.readInt ();
+        synchronized (_children) {
+          child = ((index >= 0) && (index < _children.size ())) ? _children.get (index) : null;
+          if ((child == null) || child._connected) {
+            throw new IOException ("Unexpected child index " + index);
+          }
+          child._connected = true;
+        }
+      } catch (final IOException e) {
+        _logger.log (Level.WARNING, "Dropped connection from " + socket.getRemoteSocketAddress (),
+            e);
+        close (socket);
+        return;
+      }
+      read (child, socket, in);
+    }
+
+    private void read (final Child child, final Socket socket, final DataInputStream in) {
+      try {
+        while (true) {
+          final byte type;
+          try {
+            type = in.readByte ();
+          } catch (final EOFException e) {
+            break;
+          }
+          final byte[] payload = new byte[in.readInt ()];
+          in.readFully (payload);
+          switch (type) {
+            case MESSAGE:
+              child._messages.add (deserialize (payload));
+              break;
+            case FAILURE:
+              final Throwable failure = (Throwable)deserialize (payload);
+              _logger.log (Level.WARNING, child + " failed", failure);
+              child._failed = true;
+              _errors.add (failure);
+              break;
+            case DONE:
+              child._done = true;
+              break;
+            default:
+              throw new IOException ("Unexpected message type " + type);
+          }
+        }
+      } catch (final IOException | ClassNotFoundException e) {
+        _logger.log (Level.WARNING, "Could not read from " + child, e);
+        _errors.add (e);
+      } finally {
+        child._read.countDown ();
+        close (socket);
+      }
+    }
+
+    private void close (final Socket socket) {
+      try {
+        socket.close ();
+      } catch (final IOException e) {
+        _logger.log (Level.FINE, "Could not close socket", e);
+      }
+    }
+
+    public Child start (final Class<? extends Entry> entry, final String... args)
+        throws IOException {
+      final List<String> command = new ArrayList<String> ();
+      command.add (System.getProperty ("java.home") + File.separator + "bin" + File.separator
+          + "java");
+      command.addAll (_jvmArguments);
+      command.add ("-cp");
+      // Surefire may run tests from a manifest-only jar; prefer the real test classpath if given
+      command.add (System.getProperty ("surefire.test.class.path", System
+          .getProperty ("java.class.path")));
+      command.add (Bootstrap.class.getName ());
+      command.add (Integer.toString (_server.getLocalPort ()));
+      final Child child;
+      synchronized (_children) {
+        final int index = _children.size ();
+        command.add (Integer.toString (index));
+        command.add (entry.getName ());
+        command.addAll (Arrays.asList (args));
+        _logger.fine ("Starting child " + index + ": " + command);
+        // Error output is captured for the failure message if the child never connects
+        child = new Child (index, entry.getName (), new ProcessBuilder (command).inheritIO ()
+            .redirectError (ProcessBuilder.Redirect.PIPE).start ());
+        _children.add (child);
+      }
+      daemon ("stderr-" + child._index, new Runnable () {
+
+        @Override
+        public void run () {
+          child.pumpStderr ();
+        }
+
+      });
+      daemon ("wait-" + child._index, new Runnable () {
+
+        @Override
+        public void run () {
+          try {
+            child._exitCode = child._process.waitFor ();
+          } catch (final InterruptedException e) {
+            child._exitCode = -1;
+          }
+          child._exited.countDown ();
+        }
+
+      });
+      return child;
+    }
+
+    private boolean await (final CountDownLatch latch, final long deadline)
+        throws InterruptedException {
+      return latch.await (Math.max (0, deadline - System.nanoTime ()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits briefly for a child that has exited to have connected, rather than the rest of the
+     * time budget, as its connection may not have been accepted yet.
+     */
+    private boolean awaitConnection (final Child child, final long deadline)
+        throws InterruptedException {
+      if (!child._connected) {
+        await (child._read, Math.min (deadline, System.nanoTime ()
+            + TimeUnit.MILLISECONDS.toNanos (GRACE)));
+      }
+      return child._connected;
+    }
+
+    private String withoutConnecting (final Child child) throws InterruptedException {
+      child._stderrClosed.await (GRACE, TimeUnit.MILLISECONDS);
+      final String stderr = child.stderr ();
+      return child + " exited with code " + child._exitCode + " without connecting"
+          + (stderr.isEmpty () ? "" : ": " + stderr);
+    }
+
+    /**
+     * Waits for the children to complete, destroying any that do not.
+     */
+    public void finish () throws InterruptedException {
+      final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ());
+      final List<Child> children;
+      synchronized (_children) {
+        children = new ArrayList<Child> (_children);
+      }
+      try {
+        for (final Child child : children) {
+          if (!await (child._exited, deadline)) {
+            _errors.add (new AssertionError (child + " did not complete within "
+                + Wait.maxWait () + "ms"));
+          } else if (!awaitConnection (child, deadline)) {
+            _errors.add (new AssertionError (withoutConnecting (child)));
+          } else if (!await (child._read, deadline)) {
+            _errors.add (new AssertionError ("Results from " + child + " were not read"));
+          } else if (!child._failed && ((child._exitCode != 0) || !child._done)) {
+            _errors.add (new AssertionError (child + " exited with code " + child._exitCode));
+          }
+        }
+      } finally {
+        for (final Child child : children) {
+          child._process.destroy ();
+        }
+        try {
+          _server.close ();
+        } catch (final IOException e) {
+          _logger.log (Level.FINE, "Could not close server socket", e);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Starts a child JVM.
+   * 
+   * @param entry
+   *          The code to run in the child, not {@code null}.
+   * @param args
+   *          The arguments to pass to the entry point.
+   * @return The child, never {@code null}.
+   * @throws IOException
+   *           if the child could not be started
+   */
+  public Child start (final Class<? extends Entry> entry, final String... args) throws IOException {
+    final Session session = _session;
+    assert session != null;
+    return session.start (entry, args);
+  }
+
+  /**
+   * Starts a number of child JVMs running the same entry point.
+   * 
+   * @param count
+   *          The number of children to start.
+   * @param entry
+   *          The code to run in each child, not {@code null}.
+   * @param args
+   *          The arguments to pass to the entry points.
+   * @return The children, never {@code null}.
+   * @throws IOException
+   *           if a child could not be started
+   */
+  public List<Child> start (final int count, final Class<? extends Entry> entry,
+      final String... args) throws IOException {
+    final List<Child> children = new ArrayList<Child> (count);
+    for (int i = 0; i < count; i++) {
+      children.add (start (entry, args));
+    }
+    return children;
+  }
+
+  /**
+   * Returns the port children connect to for the current test.
+   * <p>
+   * Package visible for testing.
+   * 
+   * @return The port number.
+   */
+  /* package */int port () {
+    final Session session = _session;
+    assert session != null;
+    return session._server.getLocalPort ();
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final List<Throwable> errors = Collections.synchronizedList (new LinkedList<Throwable> ());
+        final Session session = new Session (description.getDisplayName (), errors);
+        _session = session;
+        try {
+          stmt.evaluate ();
+        } catch (final Throwable t) {
+          errors.add (0, t);
+        } finally {
+          _session = null;
+          session.finish ();
+        }
+        MultipleFailureException.assertEmpty (errors);
+      }
+    };
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,250 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Opt-in rule for sampling the stacks of the test thread and any workers launched by a
+ * {@link Threads} rule. For example:
+ * 
+ * <pre class="code java">
+ * <span class="k">public class</span> <span class="i">SlowConcurrentTest</span> {
+ * 
+ *  <span class="k">private final</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ();
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">RuleChain rules</span> = <span class="i">RuleChain</span>.<span class="i">outerRule</span> (<span class="k">new</span> <span class="i">Profiler</span> ()).<span class="i">around</span> (<span class="i">threads</span>);
+ * 
+ *  <span class="c">// ...</span>
+ * }
+ * </pre>
+ * 
+ * Samples are taken by a single background thread. Workers are identified by the
+ * {@code <testName>-N} naming used by {@link Threads}. At the end of each test the samples are
+ * written in the collapsed stack format used by flame graph tools to a file named after the test
+ * in the directory given by the {@value #DIRECTORY_PROPERTY} system property.
+ */
+public class Profiler implements TestRule {
+
+  /**
+   * System property giving the directory profiles are written to.
+   */
+  public static final String DIRECTORY_PROPERTY = "uk.co.beerdragon.junit.Profiler.dir";
+
+  private static final String DEFAULT_DIRECTORY = "target/profiles";
+
+  private static final long DEFAULT_INTERVAL_MILLIS = 10;
+
+  private final long _intervalNanos;
+
+  private final File _directory;
+
+  private final Logger _logger;
+
+  /**
+   * Creates a new instance sampling every 10ms.
+   */
+  public Profiler () {
+    this (DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param interval
+   *          The time between samples, greater than zero.
+   * @param unit
+   *          The unit of {@code interval}, not {@code null}.
+   */
+  public Profiler (final long interval, final TimeUnit unit) {
+    this (interval, unit, new File (System.getProperty (DIRECTORY_PROPERTY, DEFAULT_DIRECTORY)),
+        Logger.getLogger (Profiler.class.getName ()));
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param interval
+   *          The time between samples, greater than zero.
+   * @param unit
+   *          The unit of {@code interval}, not {@code null}.
+   * @param directory
+   *          The directory to write profiles to, not {@code null}.
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public Profiler (final long interval, final TimeUnit unit, final File directory,
+      final Logger logger) {
+    assert interval > 0;
+    _intervalNanos = unit.toNanos (interval);
+    _directory = directory;
+    _logger = logger;
+  }
+
+  /**
+   * Converts a test name into a safe file name.
+   * <p>
+   * Package visible for testing.
+   * 
+   * @param testName
+   *          The display name of the test, not {@code null}.
+   * @return The file name, never {@code null}.
+   */
+  /* package */static String fileName (final String testName) {
+    return testName.replaceAll ("[^A-Za-z0-9._-]", "_") + ".collapsed";
+  }
+
+  /**
+   * Background sampler for a single test.
+   */
+  private final class Sampler implements Runnable {
+
+    private final ThreadMXBean _mx = ManagementFactory.getThreadMXBean ();
+
+    private final long _testThread;
+
+    private final String _workerPrefix;
+
+    private final Map<String, int[]> _samples = new HashMap<String, int[]> ();
+
+    private volatile boolean _stopped;
+
+    public Sampler (final long testThread, final String testName) {
+      _testThread = testThread;
+      _workerPrefix = testName + "-";
+    }
+
+    private long[] threadIds () {
+      final long[] all = _mx.getAllThreadIds ();
+      final ThreadInfo[] infos = _mx.getThreadInfo (all, 0);
+      int count = 0;
+      for (int i = 0; i < all.length; i++) {
+        if ((all[i] == _testThread)
+            || ((infos[i] != null) && infos[i].getThreadName ().startsWith (_workerPrefix))) {
+          all[count++] = all[i];
+        }
+      }
+      return Arrays.copyOf (all, count);
+    }
+
+    private void sample () {
+      final ThreadInfo[] infos = _mx.getThreadInfo (threadIds (), Integer.MAX_VALUE);
+      final StringBuilder sb = new StringBuilder ();
+      for (final ThreadInfo info : infos) {
+        if (info == null) {
+          // Thread has terminated since it was listed
+          continue;
+        }
+        final StackTraceElement[] stack = info.getStackTrace ();
+        if (stack.length == 0) {
+          continue;
+        }
+        sb.setLength (0);
+        sb.append ((info.getThreadId () == _testThread) ? "test" : "worker");
+        for (int i = stack.length; --i >= 0;) {
+          sb.append (';').append (stack[i].getClassName ()).append ('.')
+              .append (stack[i].getMethodName ());
+        }
+        if (info.getThreadState () != Thread.State.RUNNABLE) {
+          sb.append (";[").append (info.getThreadState ()).append (']');
+        }
+        final String key = sb.toString ();
+        final int[] count = _samples.get (key);
+        if (count == null) {
+          _samples.put (key, new int[] {1 });
+        } else {
+          count[0]++;
+        }
+      }
+    }
+
+    @Override
+    public void run () {
+      long next = System.nanoTime ();
+      while (!_stopped) {
+        sample ();
+        next += _intervalNanos;
+        final long delay = next - System.nanoTime ();
+        if (delay > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep (delay);
+          } catch (final InterruptedException e) {
+            break;
+          }
+        } else {
+          next = System.nanoTime ();
+        }
+      }
+    }
+
+  }
+
+  private void write (final String testName, final Map<String, int[]> samples) {
+    final File file = new File (_directory, fileName (testName));
+    try {
+      _directory.mkdirs ();
+      try (Writer writer = new FileWriter (file)) {
+        for (final Map.Entry<String, int[]> sample : samples.entrySet ()) {
+          writer.write (sample.getKey ());
+          writer.write (' ');
+          writer.write (Integer.toString (sample.getValue ()[0]));
+          writer.write ('\n');
+        }
+      }
+      _logger.fine ("Wrote " + samples.size () + " stacks to " + file);
+    } catch (final IOException e) {
+      _logger.log (Level.WARNING, "Couldn't write profile to " + file, e);
+    }
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final String testName = TestNames.of (description);
+        final Sampler sampler = new Sampler (Thread.currentThread ().getId (), testName);
+        final Thread thread = new Thread (sampler, "Profiler-" + testName);
+        thread.setDaemon (true);
+        thread.start ();
+        try {
+          stmt.evaluate ();
+        } finally {
+          sampler._stopped = true;
+          thread.interrupt ();
+          thread.join (Wait.maxWait ());
+          if (thread.isAlive ()) {
+            _logger.warning ("Profiler did not stop for " + testName);
+          } else {
+            write (testName, sampler._samples);
+          }
+        }
+      }
+    };
+  }
+
+}
\ No newline at end of file
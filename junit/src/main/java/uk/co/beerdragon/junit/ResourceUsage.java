@@ -0,0 +1,370 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Rule for recording the resources used by each test. For example:
+ * 
+ * <pre class="code java">
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">ResourceUsage usage</span> = <span class="k">new</span> <span class="i">ResourceUsage</span> ();
+ * </pre>
+ * 
+ * The wall time, CPU time and allocated bytes of the thread running the test are recorded, along
+ * with the number and time of garbage collections while it ran. For tests using this rule,
+ * {@link Threads} also records the CPU time and allocated bytes of its workers, the peak number of
+ * workers and the number of tasks started. The rules may be applied in either order.
+ * <p>
+ * Garbage collection figures are for the whole JVM, so include the activity of any tests running
+ * concurrently. CPU time and allocated bytes are omitted if the JVM cannot measure them.
+ * <p>
+ * The figures are totalled by test name for the whole suite, available from {@link #summary} and
+ * written when the JVM exits to the file named by the {@value #FILE_PROPERTY} system property, if
+ * set.
+ */
+public class ResourceUsage implements TestRule {
+
+  /**
+   * System property giving the file to write the figures for the suite to when the JVM exits.
+   */
+  public static final String FILE_PROPERTY = "uk.co.beerdragon.junit.ResourceUsage.file";
+
+  private static final Logger LOGGER = Logger.getLogger (ResourceUsage.class.getName ());
+
+  private static final String HEADER = "# test\twall_ns\tcpu_ns\tpeak_workers\ttasks"
+      + "\tallocated_bytes\tgc_count\tgc_ns";
+
+  /**
+   * Figures for each test in the suite.
+   */
+  private static final Map<String, Figures> SUMMARY = new TreeMap<String, Figures> ();
+
+  /**
+   * Tests currently running with an instance of the rule.
+   */
+  private static final Set<Description> RUNNING = Collections
+      .newSetFromMap (new ConcurrentHashMap<Description, Boolean> ());
+
+  private static boolean _summaryHook;
+
+  private final Logger _logger;
+
+  /**
+   * Totals for a single test.
+   */
+  private static final class Figures {
+
+    private long _wall;
+
+    private long _cpu;
+
+    private int _peakWorkers;
+
+    private long _tasks;
+
+    private long _allocated;
+
+    private long _gcCount;
+
+    private long _gcTime;
+
+    @Override
+    public String toString () {
+      return _wall + "\t" + _cpu + "\t" + _peakWorkers + "\t" + _tasks + "\t" + _allocated + "\t"
+          + _gcCount + "\t" + _gcTime;
+    }
+
+  }
+
+  /**
+   * Figures for the workers of a {@link Threads} executor. The worker threads are not reused by
+   * other tests so the totals of each are read once, as it exits.
+   */
+  /* package */static final class Workers {
+
+    private final String _test;
+
+    private final AtomicLong _tasks = new AtomicLong ();
+
+    private int _live;
+
+    private int _peak;
+
+    private long _cpu;
+
+    private long _allocated;
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param test
+     *          The name of the test, not {@code null}.
+     */
+    /* package */Workers (final String test) {
+      _test = test;
+    }
+
+    /**
+     * Counts a task started.
+     */
+    /* package */void task () {
+      _tasks.incrementAndGet ();
+    }
+
+    /**
+     * Counts a worker thread started. Called from the worker.
+     */
+    /* package */synchronized void started () {
+      _peak = Math.max (_peak, ++_live);
+    }
+
+    /**
+     * Adds the figures of a worker thread about to exit. Called from the worker.
+     */
+    /* package */void exited () {
+      final long cpu = cpuTime ();
+      final long allocated = allocatedBytes ();
+      synchronized (this) {
+        _cpu += cpu;
+        _allocated += allocated;
+        _live--;
+        notifyAll ();
+      }
+    }
+
+    /**
+     * Adds the figures to the summary once the workers have exited. An executor can terminate
+     * before its threads do, so they are given until the end of the {@link Wait#maxWait} time
+     * budget to report.
+     */
+    /* package */void record () {
+      final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ());
+      final Figures figures;
+      synchronized (this) {
+        try {
+          while (_live > 0) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis (deadline - System.nanoTime ());
+            if (remaining <= 0) {
+              break;
+            }
+            wait (remaining);
+          }
+        } catch (final InterruptedException e) {
+          Thread.currentThread ().interrupt ();
+        }
+        figures = new Figures ();
+        figures._cpu = _cpu;
+        figures._allocated = _allocated;
+        figures._peakWorkers = _peak;
+      }
+      figures._tasks = _tasks.get ();
+      add (_test, figures);
+    }
+
+  }
+
+  /**
+   * Creates a new instance.
+   */
+  public ResourceUsage () {
+    this (LOGGER);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public ResourceUsage (final Logger logger) {
+    _logger = logger;
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+    if (mx.isThreadCpuTimeSupported () && !mx.isThreadCpuTimeEnabled ()) {
+      mx.setThreadCpuTimeEnabled (true);
+    }
+  }
+
+  /**
+   * Tests whether a test is running with an instance of the rule, and so whether other rules should
+   * record their figures for it.
+   * 
+   * @param description
+   *          The test, not {@code null}.
+   * @return True if figures are being recorded.
+   */
+  /* package */static boolean isEnabled (final Description description) {
+    return RUNNING.contains (description);
+  }
+
+  /**
+   * Returns the CPU time of the current thread.
+   * 
+   * @return The time in nanoseconds, or zero if not available.
+   */
+  /* package */static long cpuTime () {
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+    return mx.isThreadCpuTimeEnabled () ? Math.max (0, mx.getCurrentThreadCpuTime ()) : 0;
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread.
+   * 
+   * @return The number of bytes, or zero if not available.
+   */
+  /* package */static long allocatedBytes () {
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+    if (mx instanceof com.sun.management.ThreadMXBean) {
+      final com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean)mx;
+      if (hotspot.isThreadAllocatedMemoryEnabled ()) {
+        return Math.max (0, hotspot.getThreadAllocatedBytes (Thread.currentThread ().getId ()));
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the number of garbage collections and the time spent in them.
+   * 
+   * @return The count and the time in milliseconds, never {@code null}.
+   */
+  private static long[] gc () {
+    final long[] gc = new long[2];
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans ()) {
+      gc[0] += Math.max (0, collector.getCollectionCount ());
+      gc[1] += Math.max (0, collector.getCollectionTime ());
+    }
+    return gc;
+  }
+
+  private static void add (final String name, final Figures figures) {
+    synchronized (SUMMARY) {
+      Figures total = SUMMARY.get (name);
+      if (total == null) {
+        total = new Figures ();
+        SUMMARY.put (name, total);
+      }
+      total._wall += figures._wall;
+      total._cpu += figures._cpu;
+      total._peakWorkers = Math.max (total._peakWorkers, figures._peakWorkers);
+      total._tasks += figures._tasks;
+      total._allocated += figures._allocated;
+      total._gcCount += figures._gcCount;
+      total._gcTime += figures._gcTime;
+      if (!_summaryHook) {
+        _summaryHook = true;
+        final String file = System.getProperty (FILE_PROPERTY);
+        if (file != null) {
+          Runtime.getRuntime ().addShutdownHook (new Thread ("ResourceUsage summary") {
+
+            @Override
+            public void run () {
+              try {
+                write (new File (file));
+              } catch (final IOException e) {
+                LOGGER.log (Level.WARNING, "Couldn't write " + file, e);
+              }
+            }
+
+          });
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the figures for each test run so far. There is a header line, then a line per test of
+   * tab separated values: the test name, wall time, CPU time, peak workers, tasks, allocated bytes,
+   * garbage collection count and garbage collection time. Times are in nanoseconds.
+   * 
+   * @return The summary, never {@code null}.
+   */
+  public static String summary () {
+    final StringBuilder sb = new StringBuilder (HEADER).append ('\n');
+    synchronized (SUMMARY) {
+      for (final Map.Entry<String, Figures> test : SUMMARY.entrySet ()) {
+        sb.append (test.getKey ().replace ('\t', ' ').replace ('\n', ' ')).append ('\t')
+            .append (test.getValue ()).append ('\n');
+      }
+    }
+    return sb.toString ();
+  }
+
+  /**
+   * Writes the {@link #summary} to a file.
+   * 
+   * @param file
+   *          The file to write, not {@code null}.
+   * @throws IOException
+   *           if the file could not be written
+   */
+  public static void write (final File file) throws IOException {
+    try (Writer writer = new OutputStreamWriter (new FileOutputStream (file),
+        StandardCharsets.UTF_8)) {
+      writer.write (summary ());
+    }
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final long[] gcBefore = gc ();
+        final long allocatedBefore = allocatedBytes ();
+        final long cpuBefore = cpuTime ();
+        final long wallBefore = System.nanoTime ();
+        // A rule nested in another for the same test leaves it to the outer one to unregister
+        final boolean registered = RUNNING.add (description);
+        try {
+          stmt.evaluate ();
+        } finally {
+          if (registered) {
+            RUNNING.remove (description);
+          }
+          final Figures figures = new Figures ();
+          figures._wall = System.nanoTime () - wallBefore;
+          figures._cpu = cpuTime () - cpuBefore;
+          figures._allocated = allocatedBytes () - allocatedBefore;
+          final long[] gcAfter = gc ();
+          figures._gcCount = gcAfter[0] - gcBefore[0];
+          figures._gcTime = TimeUnit.MILLISECONDS.toNanos (gcAfter[1] - gcBefore[1]);
+          if (_logger.isLoggable (Level.FINE)) {
+            _logger.fine (TestNames.of (description) + ": " + figures);
+          }
+          add (TestNames.of (description), figures);
+        }
+      }
+    };
+  }
+
+}
\ No newline at end of file
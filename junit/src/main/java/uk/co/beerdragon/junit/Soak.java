@@ -0,0 +1,481 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+/**
+ * Rule for endurance tests, which repeat the test for a period of time and fail if its performance
+ * drifts. For example:
+ * 
+ * <pre class="code java">
+ * <span class="k">public class</span> <span class="i">CacheEndurance</span> {
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ();
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Soak soak</span> = <span class="k">new</span> <span class="i">Soak</span> (<span class="i">threads</span>).<span class="i">duration</span> (<span class="l">10</span>, <span class="i">TimeUnit</span>.<span class="i">MINUTES</span>).<span class="i">workers</span> (<span class="l">4</span>);
+ * 
+ *  <span class="i">&#064;Test</span>
+ *  <span class="k">public void</span> <span class="i">testGetAndPut</span> () {
+ *    <span class="c">// ...</span>
+ *  }
+ * }
+ * </pre>
+ * 
+ * The test, including any {@code Before} and {@code After} methods and inner rules, is evaluated
+ * repeatedly until the duration has passed, on the test thread and on any further workers. The
+ * {@link Threads} rule must be applied outside this one, for example with a
+ * {@link org.junit.rules.RuleChain}, if workers are used. The duration can be overridden with the
+ * {@value #DURATION_PROPERTY} system property, so that the same tests can run briefly on developer
+ * machines and for hours in a nightly build.
+ * <p>
+ * The run is divided into equal windows. The throughput and mean latency of the iterations in each
+ * window are recorded, together with the heap in use after garbage collection and the number of
+ * live threads at its end. Throughput leaves out the time the test thread spends taking these
+ * samples. A linear trend is fitted to each of the figures, ignoring the first window as warm-up,
+ * and the test fails if any would get worse over the run by more than the threshold.
+ * Falling throughput or rising latency suggests contention building up; rising heap or thread
+ * counts suggest a leak.
+ * <p>
+ * The first iteration to fail ends the run, and its failure is reported.
+ */
+public class Soak implements TestRule {
+
+  /**
+   * System property giving the duration in milliseconds, overriding any set on the rule.
+   */
+  public static final String DURATION_PROPERTY = "uk.co.beerdragon.junit.Soak.duration";
+
+  private final Threads _threads;
+
+  private final Logger _logger;
+
+  private long _duration = Wait.maxWait ();
+
+  private int _workers = 1;
+
+  private int _windows = 10;
+
+  private double _threshold = 20;
+
+  private boolean _warnOnly;
+
+  /**
+   * Creates a new instance that will only run iterations on the test thread.
+   */
+  public Soak () {
+    this (null);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param threads
+   *          The rule to launch workers with, or {@code null} if iterations will only run on the
+   *          test thread.
+   */
+  public Soak (final Threads threads) {
+    this (threads, Logger.getLogger (Soak.class.getName ()));
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param threads
+   *          The rule to launch workers with, or {@code null} if iterations will only run on the
+   *          test thread.
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public Soak (final Threads threads, final Logger logger) {
+    _threads = threads;
+    _logger = logger;
+  }
+
+  /**
+   * Sets the time to repeat the test for, unless overridden by the {@value #DURATION_PROPERTY}
+   * system property.
+   * 
+   * @param time
+   *          The time to run for, more than zero.
+   * @param unit
+   *          The unit of {@code time}, not {@code null}.
+   * @return This instance, for chaining.
+   */
+  public Soak duration (final long time, final TimeUnit unit) {
+    assert time > 0;
+    _duration = unit.toMillis (time);
+    return this;
+  }
+
+  /**
+   * Sets the number of threads that will repeat the test concurrently. More than one requires a
+   * {@link Threads} rule to have been given at construction.
+   * 
+   * @param count
+   *          The number of threads, one or more.
+   * @return This instance, for chaining.
+   */
+  public Soak workers (final int count) {
+    assert count > 0;
+    if ((count > 1) && (_threads == null)) {
+      throw new IllegalStateException ("No Threads rule to launch workers with");
+    }
+    _workers = count;
+    return this;
+  }
+
+  /**
+   * Sets the number of windows the run is divided into.
+   * 
+   * @param count
+   *          The number of windows, at least three.
+   * @return This instance, for chaining.
+   */
+  public Soak windows (final int count) {
+    if (count < 3) {
+      throw new IllegalArgumentException ("At least three windows are needed to fit a trend");
+    }
+    _windows = count;
+    return this;
+  }
+
+  /**
+   * Sets the amount by which a metric may get worse over the run.
+   * 
+   * @param percent
+   *          The change allowed, as a percentage of the value at the start of the trend.
+   * @return This instance, for chaining.
+   */
+  public Soak threshold (final double percent) {
+    _threshold = percent;
+    return this;
+  }
+
+  /**
+   * Reports drift to the log rather than failing the test.
+   * 
+   * @return This instance, for chaining.
+   */
+  public Soak warnOnly () {
+    _warnOnly = true;
+    return this;
+  }
+
+  /**
+   * Returns the duration of the run.
+   * 
+   * @return The duration in milliseconds.
+   */
+  /* package */long duration () {
+    return Long.getLong (DURATION_PROPERTY, _duration);
+  }
+
+  /**
+   * Figures recorded at the end of each window. A negative value means no sample was taken, for
+   * example because an iteration spanned the whole window.
+   */
+  private static final class Samples {
+
+    private final long[] _heap;
+
+    private final long[] _threads;
+
+    public Samples (final int windows) {
+      _heap = new long[windows];
+      _threads = new long[windows];
+      for (int i = 0; i < windows; i++) {
+        _heap[i] = -1;
+        _threads[i] = -1;
+      }
+    }
+
+    public void sample (final int window) {
+      System.gc ();
+      System.gc ();
+      _heap[window] = ManagementFactory.getMemoryMXBean ().getHeapMemoryUsage ().getUsed ();
+      _threads[window] = ManagementFactory.getThreadMXBean ().getThreadCount ();
+    }
+
+  }
+
+  /**
+   * Repeats the test until the end of the run, recording the latency of each iteration.
+   */
+  private static final class Worker implements Runnable {
+
+    private final Statement _stmt;
+
+    private final long _start;
+
+    private final long _window;
+
+    private final Histogram[] _latency;
+
+    /**
+     * The time spent taking samples in each window, rather than running iterations.
+     */
+    private final long[] _paused;
+
+    private final Samples _samples;
+
+    private final Failures _failures;
+
+    /**
+     * The time taken by the longest iteration so far.
+     */
+    private volatile long _longest;
+
+    public Worker (final Statement stmt, final long start, final long window, final int windows,
+        final Samples samples, final Failures failures) {
+      _stmt = stmt;
+      _start = start;
+      _window = window;
+      _latency = new Histogram[windows];
+      for (int i = 0; i < windows; i++) {
+        _latency[i] = new Histogram ();
+      }
+      _paused = new long[windows];
+      _samples = samples;
+      _failures = failures;
+    }
+
+    /**
+     * Returns the iterations per second in a window, or -1 if none were recorded.
+     */
+    private double throughput (final int window) {
+      final long count = _latency[window].count ();
+      return (count > 0) ? count * 1e9 / Math.max (1, _window - _paused[window]) : -1;
+    }
+
+    private int window (final long time) {
+      return (int)Math.min ((time - _start) / _window, _latency.length);
+    }
+
+    @Override
+    public void run () {
+      long now = System.nanoTime ();
+      int window = 0;
+      while (!_failures.failed ()) {
+        try {
+          _stmt.evaluate ();
+        } catch (final Throwable t) {
+          _failures.add (t);
+          return;
+        }
+        final long end = System.nanoTime ();
+        _latency[window].record (end - now);
+        if (end - now > _longest) {
+          _longest = end - now;
+        }
+        now = end;
+        final int next = window (end);
+        if ((_samples != null) && (next != window)) {
+          _samples.sample (next - 1);
+          now = System.nanoTime ();
+          if (next < _paused.length) {
+            _paused[next] += now - end;
+          }
+        }
+        window = window (now);
+        if (window >= _latency.length) {
+          return;
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Failures from the iterations, which end the run.
+   */
+  private static final class Failures {
+
+    private final List<Throwable> _errors = Collections
+        .synchronizedList (new ArrayList<Throwable> ());
+
+    private volatile boolean _failed;
+
+    public void add (final Throwable error) {
+      _errors.add (error);
+      _failed = true;
+    }
+
+    public boolean failed () {
+      return _failed;
+    }
+
+  }
+
+  /**
+   * Fits a linear trend to the values after the first, returning the relative change it predicts
+   * from the second window to the last.
+   * 
+   * @param values
+   *          The values for each window, negative if missing, not {@code null}.
+   * @return The change as a fraction of the starting value, or {@code NaN} if there is no trend.
+   */
+  /* package */static double trend (final double[] values) {
+    double n = 0;
+    double sx = 0;
+    double sy = 0;
+    double sxx = 0;
+    double sxy = 0;
+    for (int x = 1; x < values.length; x++) {
+      if (values[x] >= 0) {
+        n++;
+        sx += x;
+        sy += values[x];
+        sxx += (double)x * x;
+        sxy += x * values[x];
+      }
+    }
+    if ((n < 2) || (n * sxx == sx * sx)) {
+      return Double.NaN;
+    }
+    final double slope = (n * sxy - sx * sy) / (n * sxx - sx * sx);
+    final double intercept = (sy - slope * sx) / n;
+    final double first = intercept + slope;
+    if (first <= 0) {
+      return Double.NaN;
+    }
+    return slope * (values.length - 2) / first;
+  }
+
+  private void check (final String name, final double[] values, final boolean higherIsBetter,
+      final List<String> problems) {
+    final double trend = trend (values);
+    final double worse = (higherIsBetter ? -trend : trend) * 100;
+    if (worse > _threshold) {
+      problems.add (String.format ("%s %s by %.0f%% over the run (threshold %.0f%%)", name,
+          higherIsBetter ? "fell" : "rose", worse, _threshold));
+    }
+  }
+
+  private static String table (final double[] throughput, final double[] latency,
+      final double[] heap, final double[] threads) {
+    final StringBuilder sb = new StringBuilder ("window\tops/sec\tmean ns\theap bytes\tthreads");
+    for (int i = 0; i < throughput.length; i++) {
+      sb.append ('\n').append (i).append ('\t').append ((long)throughput[i]).append ('\t')
+          .append ((long)latency[i]).append ('\t').append ((long)heap[i]).append ('\t')
+          .append ((long)threads[i]);
+    }
+    return sb.toString ();
+  }
+
+  private void run (final Statement stmt, final Description description) throws Throwable {
+    final long duration = TimeUnit.MILLISECONDS.toNanos (duration ());
+    final int windows = _windows;
+    final int count = _workers;
+    final long window = Math.max (1, duration / windows);
+    final Samples samples = new Samples (windows);
+    final Failures failures = new Failures ();
+    final long start = System.nanoTime ();
+    final Worker[] workers = new Worker[count];
+    final CountDownLatch complete = new CountDownLatch (count - 1);
+    for (int i = 1; i < count; i++) {
+      final Worker worker = new Worker (stmt, start, window, windows, null, failures);
+      workers[i] = worker;
+      _threads.start (new Runnable () {
+
+        @Override
+        public void run () {
+          try {
+            worker.run ();
+          } finally {
+            complete.countDown ();
+          }
+        }
+
+        @Override
+        public String toString () {
+          return "Soak " + description.getDisplayName ();
+        }
+
+      });
+    }
+    workers[0] = new Worker (stmt, start, window, windows, samples, failures);
+    workers[0].run ();
+    // The other workers each finish within one of their own iterations of the end of the run, so
+    // allow for a final iteration as long as the longest yet as well as the usual time budget
+    long longest = 0;
+    for (final Worker worker : workers) {
+      longest = Math.max (longest, worker._longest);
+    }
+    if (!complete.await (Wait.maxWait () + TimeUnit.NANOSECONDS.toMillis (longest),
+        TimeUnit.MILLISECONDS)) {
+      throw new AssertionError ("Soak workers did not finish");
+    }
+    MultipleFailureException.assertEmpty (failures._errors);
+    final double[] throughput = new double[windows];
+    final double[] latency = new double[windows];
+    final double[] heap = new double[windows];
+    final double[] threads = new double[windows];
+    for (int i = 0; i < windows; i++) {
+      final Histogram merged = new Histogram ();
+      // An iteration can span the whole window, leaving nothing to measure
+      throughput[i] = -1;
+      for (final Worker worker : workers) {
+        merged.merge (worker._latency[i]);
+        final double rate = worker.throughput (i);
+        if (rate >= 0) {
+          throughput[i] = Math.max (0, throughput[i]) + rate;
+        }
+      }
+      latency[i] = (merged.count () > 0) ? merged.mean () : -1;
+      heap[i] = samples._heap[i];
+      threads[i] = samples._threads[i];
+    }
+    final String table = table (throughput, latency, heap, threads);
+    _logger.info (description.getDisplayName () + " soaked for "
+        + TimeUnit.NANOSECONDS.toMillis (duration) + "ms:\n" + table);
+    final List<String> problems = new ArrayList<String> ();
+    check ("Throughput", throughput, true, problems);
+    check ("Latency", latency, false, problems);
+    check ("Heap", heap, false, problems);
+    check ("Threads", threads, false, problems);
+    if (!problems.isEmpty ()) {
+      final StringBuilder sb = new StringBuilder ();
+      for (final String problem : problems) {
+        sb.append (problem).append ('\n');
+      }
+      final String message = sb.append (table).toString ();
+      if (_warnOnly) {
+        _logger.warning (message);
+      } else {
+        throw new AssertionError (message);
+      }
+    }
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        run (stmt, description);
+      }
+    };
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that can be updated by many threads without contention. Each thread updates one of
+ * several cells, chosen by its identifier, and the value is the sum of the cells. Cells are spaced
+ * apart so that no two share a cache line.
+ * <p>
+ * Reading the value is slower than updating it, and is not atomic with respect to concurrent
+ * updates.
+ */
+/* package */final class StripedCounter {
+
+  /**
+   * Spacing of the cells, in longs. Two 64 byte cache lines, to allow for adjacent line prefetch.
+   */
+  private static final int SPACING = 16;
+
+  private static final int STRIPES = stripes ();
+
+  private final AtomicLongArray _cells = new AtomicLongArray (STRIPES * SPACING);
+
+  /**
+   * Returns the number of cells to use; a power of two at least twice the number of processors.
+   */
+  private static int stripes () {
+    final int processors = Runtime.getRuntime ().availableProcessors ();
+    int stripes = 1;
+    while ((stripes < processors * 2) && (stripes < 256)) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+  private static int cell () {
+    // Identifiers are usually sequential, so threads started together use different cells
+    return ((int)Thread.currentThread ().getId () & (STRIPES - 1)) * SPACING;
+  }
+
+  /**
+   * Adds to the counter.
+   * 
+   * @param delta
+   *          The amount to add, may be negative.
+   */
+  public void add (final long delta) {
+    _cells.addAndGet (cell (), delta);
+  }
+
+  /**
+   * Adds one to the counter.
+   */
+  public void increment () {
+    add (1);
+  }
+
+  /**
+   * Subtracts one from the counter.
+   */
+  public void decrement () {
+    add (-1);
+  }
+
+  /**
+   * Returns the value of the counter.
+   * 
+   * @return The sum of the updates made.
+   */
+  public long sum () {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += _cells.get (i * SPACING);
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString () {
+    return Long.toString (sum ());
+  }
+
+}
\ No newline at end of file
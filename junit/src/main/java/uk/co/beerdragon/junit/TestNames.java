@@ -0,0 +1,34 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import org.junit.runner.Description;
+
+/**
+ * Names of tests for the rules to log and report against.
+ */
+/* package */final class TestNames {
+
+  /**
+   * Prevents instantiation.
+   */
+  private TestNames () {
+  }
+
+  /**
+   * Returns the name of a test. Descriptions made by hand may not have a name, in which case
+   * {@code "null"} is used so that the test can still be logged and counted in summaries.
+   * 
+   * @param description
+   *          The description of the test, not {@code null}.
+   * @return The name, never {@code null}.
+   */
+  public static String of (final Description description) {
+    return String.valueOf (description.getDisplayName ());
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,292 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+/**
+ * Rule for detecting threads started by a test that are still running after it completes. For
+ * example:
+ * 
+ * <pre class="code java">
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">ThreadLeaks leaks</span> = <span class="k">new</span> <span class="i">ThreadLeaks</span> ();
+ * </pre>
+ * 
+ * The live threads are recorded before each test. Any new threads still alive after the test are
+ * given until the end of the {@link Wait#maxWait} time budget to terminate, after which each is
+ * reported with its name, current stack and, if it was created by a {@link #factory} wrapped
+ * thread factory, the stack that created it. The test fails unless {@link #warnOnly} was set.
+ * <p>
+ * A count of the threads leaked by each test is kept for the whole suite, available from
+ * {@link #summary} and written to the log when the JVM exits.
+ */
+public class ThreadLeaks implements TestRule {
+
+  private static final Logger LOGGER = Logger.getLogger (ThreadLeaks.class.getName ());
+
+  /**
+   * Threads that are started lazily by the runtime and are never stopped.
+   */
+  private static final Pattern DEFAULT_IGNORE = Pattern
+      .compile ("ForkJoinPool\\.commonPool-worker-.*|process reaper|Attach Listener");
+
+  /**
+   * Stack at the point of creation of threads from wrapped factories.
+   */
+  private static final Map<Thread, Throwable> CREATED = Collections
+      .synchronizedMap (new WeakHashMap<Thread, Throwable> ());
+
+  /**
+   * Number of threads leaked by each test in the suite.
+   */
+  private static final Map<String, Integer> SUMMARY = new TreeMap<String, Integer> ();
+
+  private static boolean _summaryHook;
+
+  private final Logger _logger;
+
+  private volatile boolean _warnOnly;
+
+  private volatile Pattern _ignore = DEFAULT_IGNORE;
+
+  private volatile long _grace = Wait.maxWait ();
+
+  /**
+   * Creates a new instance.
+   */
+  public ThreadLeaks () {
+    this (LOGGER);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public ThreadLeaks (final Logger logger) {
+    _logger = logger;
+  }
+
+  /**
+   * Reports leaked threads to the log rather than failing the test.
+   * 
+   * @return This instance, for chaining.
+   */
+  public ThreadLeaks warnOnly () {
+    _warnOnly = true;
+    return this;
+  }
+
+  /**
+   * Sets the names of threads that are not considered leaks, in addition to those started lazily
+   * by the runtime.
+   * 
+   * @param regex
+   *          The regular expression matching the whole of the thread names to ignore, not
+   *          {@code null}.
+   * @return This instance, for chaining.
+   */
+  public ThreadLeaks ignore (final String regex) {
+    _ignore = Pattern.compile (DEFAULT_IGNORE.pattern () + "|" + regex);
+    return this;
+  }
+
+  /**
+   * Sets the time new threads are given to terminate at the end of a test.
+   * 
+   * @param time
+   *          The time to wait, not more than {@link Wait#maxWait}.
+   * @param unit
+   *          The unit of {@code time}, not {@code null}.
+   * @return This instance, for chaining.
+   */
+  public ThreadLeaks grace (final long time, final TimeUnit unit) {
+    _grace = Math.min (unit.toMillis (time), Wait.maxWait ());
+    return this;
+  }
+
+  /**
+   * Wraps a thread factory so that the stack creating each thread is reported if it leaks.
+   * 
+   * @param factory
+   *          The factory to wrap, not {@code null}.
+   * @return The wrapped factory, never {@code null}.
+   */
+  public static ThreadFactory factory (final ThreadFactory factory) {
+    return new ThreadFactory () {
+
+      @Override
+      public Thread newThread (final Runnable r) {
+        final Thread thread = factory.newThread (r);
+        CREATED.put (thread, new Throwable ("Created at"));
+        return thread;
+      }
+
+    };
+  }
+
+  /**
+   * Returns the number of threads leaked by each test run so far.
+   * 
+   * @return The summary, one test per line, empty if there have been no leaks.
+   */
+  public static String summary () {
+    final StringBuilder sb = new StringBuilder ();
+    synchronized (SUMMARY) {
+      for (final Map.Entry<String, Integer> test : SUMMARY.entrySet ()) {
+        sb.append (test.getValue ()).append (" thread(s) leaked by ").append (test.getKey ())
+            .append ('\n');
+      }
+    }
+    return sb.toString ();
+  }
+
+  private static void addToSummary (final String name, final int leaked) {
+    synchronized (SUMMARY) {
+      final Integer previous = SUMMARY.get (name);
+      SUMMARY.put (name, (previous != null) ? previous + leaked : leaked);
+      if (!_summaryHook) {
+        _summaryHook = true;
+        Runtime.getRuntime ().addShutdownHook (new Thread ("ThreadLeaks summary") {
+
+          @Override
+          public void run () {
+            LOGGER.warning ("Thread leaks in suite:\n" + summary ());
+          }
+
+        });
+      }
+    }
+  }
+
+  /**
+   * Returns all live threads.
+   * 
+   * @return The threads, never {@code null}.
+   */
+  /* package */static Set<Thread> liveThreads () {
+    ThreadGroup root = Thread.currentThread ().getThreadGroup ();
+    while (root.getParent () != null) {
+      root = root.getParent ();
+    }
+    Thread[] threads = new Thread[root.activeCount () + 16];
+    int count;
+    while ((count = root.enumerate (threads, true)) == threads.length) {
+      threads = new Thread[threads.length * 2];
+    }
+    return new HashSet<Thread> (Arrays.asList (threads).subList (0, count));
+  }
+
+  /**
+   * Finds the threads that were not running before the test and have not terminated.
+   */
+  private List<Thread> leaked (final Set<Thread> before) {
+    final List<Thread> leaked = new ArrayList<Thread> ();
+    final Pattern ignore = _ignore;
+    for (final Thread thread : liveThreads ()) {
+      if (!before.contains (thread) && (thread != Thread.currentThread ())
+          && !ignore.matcher (thread.getName ()).matches ()) {
+        leaked.add (thread);
+      }
+    }
+    return leaked;
+  }
+
+  /**
+   * Waits for new threads to terminate, returning any that did not.
+   */
+  private List<Thread> stragglers (final Set<Thread> before) throws InterruptedException {
+    final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (_grace);
+    List<Thread> leaked = leaked (before);
+    while (!leaked.isEmpty ()) {
+      for (final Thread thread : leaked) {
+        final long remaining = TimeUnit.NANOSECONDS.toMillis (deadline - System.nanoTime ());
+        if (remaining <= 0) {
+          return leaked (before);
+        }
+        thread.join (remaining);
+      }
+      // Terminating threads may have started others
+      leaked = leaked (before);
+    }
+    return leaked;
+  }
+
+  /**
+   * Describes the leaked threads.
+   */
+  private static String describe (final String test, final List<Thread> leaked) {
+    final StringBuilder sb = new StringBuilder ();
+    sb.append (leaked.size ()).append (" thread(s) leaked by ").append (test);
+    for (final Thread thread : leaked) {
+      sb.append ("\n  \"").append (thread.getName ()).append ("\" ").append (thread.getState ());
+      for (final StackTraceElement frame : thread.getStackTrace ()) {
+        sb.append ("\n    at ").append (frame);
+      }
+      final Throwable created = CREATED.get (thread);
+      if (created != null) {
+        sb.append ("\n    ").append (created.getMessage ());
+        for (final StackTraceElement frame : created.getStackTrace ()) {
+          sb.append ("\n      ").append (frame);
+        }
+      }
+    }
+    return sb.toString ();
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final List<Throwable> errors = new LinkedList<Throwable> ();
+        final Set<Thread> before = liveThreads ();
+        try {
+          stmt.evaluate ();
+        } catch (final Throwable t) {
+          errors.add (t);
+        }
+        final List<Thread> leaked = stragglers (before);
+        if (!leaked.isEmpty ()) {
+          final String test = TestNames.of (description);
+          addToSummary (test, leaked.size ());
+          final String message = describe (test, leaked);
+          if (_warnOnly) {
+            _logger.warning (message);
+          } else {
+            errors.add (new AssertionError (message));
+          }
+        }
+        MultipleFailureException.assertEmpty (errors);
+      }
+    };
+  }
+
+}
\ No newline at end of file
@@ -6,13 +6,22 @@
  */
 package uk.co.beerdragon.junit;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,17 +31,15 @@ import org.junit.runner.Description;
 import org.junit.runners.model.MultipleFailureException;
 import org.junit.runners.model.Statement;
 
-import com.google.common.base.Supplier;
-
 /**
  * Rule for a pool of threads that will be terminated at the end of a test. For example:
  * 
  * <pre class="code java">
  * <span class="k">public class</span> <span class="i">UsesChildThreads</span> {
- *
+ * 
  *  <span class="i">&#064;Rule</span>
  *  <span class="k">public</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ();
- *
+ * 
  *  <span class="i">&#064;Test</span>
  *  <span class="k">public void</span> <span class="i">testUsingChildThread</span> () {
  *    <span class="i">threads</span>.<span class="i">start</span> (<span class="k">new</span> <span class="i">Runnable</span> () {
@@ -46,9 +53,53 @@ import com.google.common.base.Supplier;
  * </pre>
  * 
  * Any exceptions thrown by spawned tasks will cause test failure.
+ * <p>
+ * Contention monitoring can be enabled with {@link #monitorContention}. The blocked, waited, CPU
+ * and wall times of each worker are then reported at the end of the test and checked against any
+ * assertions given, for example:
+ * 
+ * <pre class="code java">
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ().<span class="i">monitorContention</span> (<span class="i">WorkerStatistics</span>.<span class="i">maxBlockedPercent</span> (<span class="l">5</span>));
+ * </pre>
+ * <p>
+ * Scheduling {@link Noise} can be injected with {@link #noise} to make races more likely to show.
+ * The seed is reported with any failure so that the run can be replayed.
+ * <p>
+ * Tests with several phases can run each in a {@link #scope}, which waits for all of the tasks
+ * started in it and fails as soon as any of them does.
+ * <p>
+ * Live counts of the tasks and workers can be watched through {@link Metrics}.
+ * <p>
+ * Tests starting very large numbers of tasks can limit the memory used for bookkeeping with
+ * {@link #boundedMemory}.
+ * <p>
+ * The resources used by the workers are recorded if a {@link ResourceUsage} rule is in use.
+ * <p>
+ * A single instance may be shared by tests running concurrently, for example under
+ * {@link ParallelRunner}. Each test has its own executor and errors, bound to the thread running
+ * the test and the workers it launches, and takes a copy of the configuration when it starts.
  */
 public class Threads implements TestRule {
 
+  /**
+   * Lock for the contention monitoring state of the JVM, which is shared by all instances.
+   */
+  private static final Object MONITORING = new Object ();
+
+  /**
+   * Number of executors currently monitoring contention.
+   */
+  private static int _monitoring;
+
+  /**
+   * Contention monitoring and CPU time settings of the JVM before the first of the current
+   * executors enabled them, restored when the last of them finishes.
+   */
+  private static boolean _contentionWasEnabled;
+
+  private static boolean _cpuTimeWasEnabled;
+
   /**
    * Thread local storage of the underlying executor. The thread running a test method will create
    * an executor before calling the method and destroy it afterwards. Any threads created by the
@@ -56,10 +107,34 @@ public class Threads implements TestRule {
    * needed. This pattern ensures spawned threads always observe the correct executor (although it
    * will reject further submissions) if they outlive the call original test method.
    */
-  private final ThreadLocal<ExecutorService> _executor = new ThreadLocal<ExecutorService> ();
+  private final ThreadLocal<Executor> _executor = new ThreadLocal<Executor> ();
+
+  /**
+   * Thread local storage of the statistics for a worker thread, if contention monitoring is
+   * enabled.
+   */
+  private final ThreadLocal<WorkerStatistics> _worker = new ThreadLocal<WorkerStatistics> ();
+
+  /**
+   * Thread local storage of the innermost scope the thread is running in, if any. Tasks started by
+   * a thread in a scope belong to that scope and run in it, so that any tasks they start also
+   * belong to it.
+   */
+  private final ThreadLocal<Scope> _scope = new ThreadLocal<Scope> ();
 
   private final Logger _logger;
 
+  /**
+   * Live counters, or {@code null} if not enabled.
+   */
+  private final Metrics.ThreadsMetrics _metrics = Metrics.threads ();
+
+  private volatile List<WorkerStatistics.Check> _contentionChecks;
+
+  private volatile Noise _noise;
+
+  private volatile int _maxErrors = Integer.MAX_VALUE;
+
   /**
    * Creates a new instance.
    */
@@ -77,26 +152,141 @@ public class Threads implements TestRule {
     _logger = logger;
   }
 
+  /**
+   * Enables contention monitoring for the workers launched by this rule. The figures for each
+   * worker will be logged at the end of each test and then passed to the checks given.
+   * Monitoring is only switched on in the JVM while such tests are running.
+   * 
+   * @param checks
+   *          The assertions to make at the end of each test, not {@code null}.
+   * @return This instance, for chaining.
+   */
+  public Threads monitorContention (final WorkerStatistics.Check... checks) {
+    if (!ManagementFactory.getThreadMXBean ().isThreadContentionMonitoringSupported ()) {
+      _logger.warning ("Thread contention monitoring is not supported");
+    }
+    _contentionChecks = new ArrayList<WorkerStatistics.Check> (Arrays.asList (checks));
+    return this;
+  }
+
+  /**
+   * Enables scheduling noise for the test thread and the workers launched by this rule.
+   * 
+   * @param noise
+   *          The noise to inject, not {@code null}.
+   * @return This instance, for chaining.
+   */
+  public Threads noise (final Noise noise) {
+    _noise = noise;
+    return this;
+  }
+
+  /**
+   * Limits the memory retained for each task and failure. The stacks that start tasks are trimmed
+   * when captured rather than on failure, and their frames shared between tasks started from the
+   * same places. At most {@code maxErrors} failures are kept in full; for any others only the
+   * number of each type is reported.
+   * 
+   * @param maxErrors
+   *          The maximum number of failures to keep for each test, one or more.
+   * @return This instance, for chaining.
+   */
+  public Threads boundedMemory (final int maxErrors) {
+    if (maxErrors < 1) {
+      throw new IllegalArgumentException ("maxErrors must be at least 1");
+    }
+    _maxErrors = maxErrors;
+    return this;
+  }
+
+  /**
+   * Stacks captured by the tasks of a test in bounded memory mode. Equal stacks share a single
+   * array, and equal frames a single element, so that a loop starting many tasks retains only one
+   * copy of its stack.
+   */
+  private static final class Stacks {
+
+    private final ConcurrentMap<StackTraceElement, StackTraceElement> _frames =
+        new ConcurrentHashMap<StackTraceElement, StackTraceElement> ();
+
+    private final ConcurrentMap<List<StackTraceElement>, StackTraceElement[]> _stacks =
+        new ConcurrentHashMap<List<StackTraceElement>, StackTraceElement[]> ();
+
+    public StackTraceElement[] intern (final StackTraceElement[] stack) {
+      final List<StackTraceElement> key = Arrays.asList (stack);
+      StackTraceElement[] interned = _stacks.get (key);
+      if (interned == null) {
+        for (int i = 0; i < stack.length; i++) {
+          final StackTraceElement frame = _frames.putIfAbsent (stack[i], stack[i]);
+          if (frame != null) {
+            stack[i] = frame;
+          }
+        }
+        interned = _stacks.putIfAbsent (key, stack);
+        if (interned == null) {
+          interned = stack;
+        }
+      }
+      return interned;
+    }
+
+  }
+
+  /**
+   * Returns the frames of a stack captured in {@link #start} that lie outside this class.
+   * 
+   * @param stack
+   *          The captured stack, never {@code null}.
+   * @return The frames of the caller, never {@code null}.
+   */
+  private static StackTraceElement[] callerStack (final StackTraceElement[] stack) {
+    int start = 0;
+    while (start < stack.length && !Threads.class.getName ().equals (stack[start].getClassName ())) {
+      start++;
+    }
+    if (start < stack.length) start++;
+    return Arrays.copyOfRange (stack, start, stack.length);
+  }
+
   /**
    * Wraps the runnable in a form that will translate the stack frames of any exceptions so that
    * they include the history of calls that requested the task be launched rather than start at a
    * thread created by the executor.
+   * <p>
+   * Any failure is recorded against the test before the wrapped runnable returns. This must happen
+   * before the executor can observe the task as complete, otherwise the test thread may see the
+   * executor terminate and check for errors before the failure has been added.
    * 
    * @param task
    *          The runnable to wrap, never {@code null}.
+   * @param errors
+   *          The errors from the test, never {@code null}.
+   * @param stacks
+   *          The stacks to share frames with, or {@code null} to trim the stack only on failure.
    * @return The wrapped runnable, never {@code null}.
    */
-  private Runnable fixStackTrace (final Runnable task) {
-    final StackTraceElement[] startStack = Thread.currentThread ().getStackTrace ();
+  private Runnable fixStackTrace (final Runnable task, final Collection<Throwable> errors,
+      final Stacks stacks) {
+    final StackTraceElement[] startStack = (stacks != null) ? stacks.intern (callerStack (Platform
+        .stack ())) : Platform.stack ();
     return new Runnable () {
 
       @Override
       public void run () {
+        if (_metrics != null) {
+          _metrics.taskStarted ();
+        }
+        boolean failed = false;
         try {
-          _logger.info ("Running: " + task);
+          if (_logger.isLoggable (Level.FINE)) {
+            _logger.fine ("Running: " + task);
+          }
           task.run ();
-          _logger.info ("Finished: " + task);
+          if (_logger.isLoggable (Level.FINE)) {
+            _logger.fine ("Finished: " + task);
+          }
         } catch (RuntimeException | Error e) {
+          failed = true;
           final StackTraceElement[] taskStack = e.getStackTrace ();
           int task = 0;
           while (task < taskStack.length
@@ -104,23 +294,255 @@ public class Threads implements TestRule {
             task++;
           }
           if (task < taskStack.length) task++;
-          int start = 0;
-          while (start < startStack.length
-              && !Threads.class.getName ().equals (startStack[start].getClassName ())) {
-            start++;
-          }
-          if (start < startStack.length) start++;
-          final StackTraceElement[] stack = new StackTraceElement[task + startStack.length - start];
+          final StackTraceElement[] callerStack = (stacks != null) ? startStack
+              : callerStack (startStack);
+          final StackTraceElement[] stack = new StackTraceElement[task + callerStack.length];
           System.arraycopy (taskStack, 0, stack, 0, task);
-          System.arraycopy (startStack, start, stack, task, startStack.length - start);
+          System.arraycopy (callerStack, 0, stack, task, callerStack.length);
           e.setStackTrace (stack);
           _logger.log (Level.WARNING, "Task failed", e);
-          throw e;
+          errors.add (e);
+        } finally {
+          if (_metrics != null) {
+            _metrics.taskFinished (failed);
+          }
         }
       }
     };
   }
 
+  /**
+   * Enables contention monitoring and CPU timing in the JVM for an executor, recording the
+   * previous settings if no other executor is monitoring.
+   */
+  private static void startMonitoring () {
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+    synchronized (MONITORING) {
+      if (_monitoring++ == 0) {
+        if (mx.isThreadContentionMonitoringSupported ()) {
+          _contentionWasEnabled = mx.isThreadContentionMonitoringEnabled ();
+          mx.setThreadContentionMonitoringEnabled (true);
+        }
+        if (mx.isCurrentThreadCpuTimeSupported ()) {
+          _cpuTimeWasEnabled = mx.isThreadCpuTimeEnabled ();
+          mx.setThreadCpuTimeEnabled (true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Restores the settings recorded by {@link #startMonitoring} once no executor is monitoring.
+   */
+  private static void stopMonitoring () {
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+    synchronized (MONITORING) {
+      if (--_monitoring == 0) {
+        if (mx.isThreadContentionMonitoringSupported ()) {
+          mx.setThreadContentionMonitoringEnabled (_contentionWasEnabled);
+        }
+        if (mx.isCurrentThreadCpuTimeSupported ()) {
+          mx.setThreadCpuTimeEnabled (_cpuTimeWasEnabled);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wraps the runnable in a form that will add the contention figures from running it to the
+   * statistics of the worker thread.
+   * 
+   * @param task
+   *          The runnable to wrap, never {@code null}.
+   * @return The wrapped runnable, never {@code null}.
+   */
+  private Runnable monitorContention (final Runnable task) {
+    return new Runnable () {
+
+      @Override
+      public void run () {
+        final WorkerStatistics statistics = _worker.get ();
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+        final long id = Thread.currentThread ().getId ();
+        final long wallBefore = System.nanoTime ();
+        final long cpuBefore = mx.getCurrentThreadCpuTime ();
+        final ThreadInfo before = mx.getThreadInfo (id);
+        try {
+          task.run ();
+        } finally {
+          statistics.add (before, cpuBefore, wallBefore, mx.getThreadInfo (id),
+              mx.getCurrentThreadCpuTime (), System.nanoTime ());
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps the runnable in a form that will apply noise before running it.
+   * 
+   * @param task
+   *          The runnable to wrap, never {@code null}.
+   * @return The wrapped runnable, never {@code null}.
+   */
+  private static Runnable perturb (final Runnable task) {
+    return new Runnable () {
+
+      @Override
+      public void run () {
+        Noise.point ();
+        task.run ();
+      }
+    };
+  }
+
+  /**
+   * Tasks started within a call to {@link #scope}. The tasks are tracked until they complete so
+   * that the scope can wait for them, or cancel them if one fails.
+   */
+  private static final class Scope {
+
+    private final long _deadline;
+
+    private final List<Throwable> _errors = Collections
+        .synchronizedList (new ArrayList<Throwable> ());
+
+    /**
+     * Tasks that have been started but not completed, guarded by this instance.
+     */
+    private final Set<ScopedTask> _tasks = new HashSet<ScopedTask> ();
+
+    private boolean _cancelled;
+
+    public Scope (final Scope parent) {
+      final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ());
+      _deadline = ((parent != null) && (parent._deadline - deadline < 0)) ? parent._deadline
+          : deadline;
+    }
+
+    public synchronized boolean add (final ScopedTask task) {
+      if (_cancelled) {
+        return false;
+      }
+      _tasks.add (task);
+      return true;
+    }
+
+    public synchronized void remove (final ScopedTask task) {
+      _tasks.remove (task);
+      if (_tasks.isEmpty ()) {
+        notifyAll ();
+      }
+    }
+
+    public synchronized void cancel () {
+      if (!_cancelled) {
+        _cancelled = true;
+        for (final ScopedTask task : new ArrayList<ScopedTask> (_tasks)) {
+          task.cancel ();
+        }
+        notifyAll ();
+      }
+    }
+
+    /**
+     * Waits for all tasks to complete, cancelling any that remain after a failure.
+     * 
+     * @return {@code true} if the tasks completed, {@code false} if the deadline passed
+     */
+    public synchronized boolean await () throws InterruptedException {
+      while (!_tasks.isEmpty ()) {
+        if (!_errors.isEmpty ()) {
+          cancel ();
+        }
+        final long remaining = TimeUnit.NANOSECONDS.toMillis (_deadline - System.nanoTime ());
+        if (remaining <= 0) {
+          return false;
+        }
+        wait (remaining);
+      }
+      return true;
+    }
+
+    public synchronized String pending () {
+      return _tasks.toString ();
+    }
+
+  }
+
+  /**
+   * A task belonging to a {@link Scope}. A task cancelled before it starts is never run; one
+   * cancelled while running is interrupted.
+   */
+  private final class ScopedTask implements Runnable {
+
+    private final Scope _owner;
+
+    private final Runnable _task;
+
+    private final String _name;
+
+    /**
+     * Whether the task has either started or been cancelled, guarded by the scope.
+     */
+    private boolean _claimed;
+
+    /**
+     * The thread running the task, guarded by the scope.
+     */
+    private Thread _thread;
+
+    public ScopedTask (final Scope owner, final Runnable task, final String name) {
+      _owner = owner;
+      _task = task;
+      _name = name;
+    }
+
+    /**
+     * Cancels the task. Called with the scope lock held.
+     */
+    public void cancel () {
+      if (!_claimed) {
+        _claimed = true;
+        _owner.remove (this);
+      } else if (_thread != null) {
+        _thread.interrupt ();
+      }
+    }
+
+    @Override
+    public void run () {
+      synchronized (_owner) {
+        if (_claimed) {
+          return;
+        }
+        _claimed = true;
+        _thread = Thread.currentThread ();
+      }
+      final Scope previous = _scope.get ();
+      _scope.set (_owner);
+      try {
+        _task.run ();
+      } finally {
+        _scope.set (previous);
+        if (!_owner._errors.isEmpty ()) {
+          _owner.cancel ();
+        }
+        synchronized (_owner) {
+          _thread = null;
+          // Clear any interrupt from a cancellation that arrived after the task finished
+          Thread.interrupted ();
+        }
+        _owner.remove (this);
+      }
+    }
+
+    @Override
+    public String toString () {
+      return _name;
+    }
+
+  }
+
   /**
    * Submits a task to the executor service managed by this rule.
    * 
@@ -128,10 +550,93 @@ public class Threads implements TestRule {
    *          The task to run.
    */
   public void start (final Runnable task) {
-    final ExecutorService executor = _executor.get ();
+    final Executor executor = _executor.get ();
     assert executor != null;
-    _logger.fine ("Spawning task: " + task.toString ());
-    executor.execute (fixStackTrace (task));
+    if (_logger.isLoggable (Level.FINE)) {
+      _logger.fine ("Spawning task: " + task.toString ());
+    }
+    if (_metrics != null) {
+      _metrics.taskSubmitted ();
+    }
+    final Scope scope = _scope.get ();
+    Runnable wrapped = fixStackTrace (task, (scope != null) ? scope._errors : executor._errors,
+        executor._stacks);
+    if (executor._noise != null) {
+      wrapped = perturb (wrapped);
+    }
+    if (executor._statistics != null) {
+      wrapped = monitorContention (wrapped);
+    }
+    final ResourceUsage.Workers workers = executor.workers ();
+    if (workers != null) {
+      workers.task ();
+    }
+    if (scope != null) {
+      final ScopedTask scoped = new ScopedTask (scope, wrapped, task.toString ());
+      if (!scope.add (scoped)) {
+        _logger.fine ("Scope cancelled, not starting " + scoped);
+        return;
+      }
+      try {
+        executor._service.execute (scoped);
+      } catch (final RuntimeException e) {
+        scope.remove (scoped);
+        throw e;
+      }
+    } else {
+      executor._service.execute (wrapped);
+    }
+  }
+
+  /**
+   * Runs a block and waits for all of the tasks it starts to complete. Tasks started by those
+   * tasks, and so on, are included. The tasks share a single deadline of {@link Wait#maxWait}, or
+   * the deadline of any enclosing scope if that is sooner.
+   * <p>
+   * If the block or any task fails the remaining tasks are cancelled; those that have not started
+   * will not run and those that are running are interrupted. The first failure is then thrown from
+   * this method, with any others suppressed, rather than being reported at the end of the test.
+   * 
+   * @param block
+   *          The block to run, not {@code null}.
+   * @throws AssertionError
+   *           if the tasks did not complete before the deadline
+   */
+  public void scope (final Runnable block) {
+    final Scope parent = _scope.get ();
+    final Scope scope = new Scope (parent);
+    _scope.set (scope);
+    try {
+      block.run ();
+    } catch (RuntimeException | Error e) {
+      scope._errors.add (0, e);
+    } finally {
+      _scope.set (parent);
+    }
+    try {
+      if (!scope.await ()) {
+        scope._errors.add (new AssertionError ("Tasks did not complete within scope: "
+            + scope.pending ()));
+        scope.cancel ();
+      }
+    } catch (final InterruptedException e) {
+      scope.cancel ();
+      scope._errors.add (new AssertionError (e));
+    }
+    final List<Throwable> errors;
+    synchronized (scope._errors) {
+      errors = new ArrayList<Throwable> (scope._errors);
+    }
+    if (!errors.isEmpty ()) {
+      final Throwable first = errors.get (0);
+      for (final Throwable other : errors.subList (1, errors.size ())) {
+        first.addSuppressed (other);
+      }
+      if (first instanceof Error) {
+        throw (Error)first;
+      }
+      throw (RuntimeException)first;
+    }
   }
 
   /**
@@ -140,76 +645,242 @@ public class Threads implements TestRule {
    */
   private class ThreadFactoryImpl implements ThreadFactory {
 
-    private final ThreadFactory _default = Executors.defaultThreadFactory ();
+    private final ThreadFactory _default = Platform.threadFactory ();
 
     private final AtomicInteger _count = new AtomicInteger ();
 
-    private final Supplier<ExecutorService> _service;
+    private final Executor _state;
 
     private final String _testName;
 
     private final Collection<Throwable> _errors;
 
-    public ThreadFactoryImpl (final Supplier<ExecutorService> service, final String testName,
+    public ThreadFactoryImpl (final Executor state, final String testName,
         final Collection<Throwable> errors) {
-      _service = service;
+      _state = state;
       _testName = testName;
       _errors = errors;
     }
 
     @Override
     public Thread newThread (final Runnable r) {
+      final int number = _count.incrementAndGet ();
       final Thread thread = _default.newThread (new Runnable () {
 
         @Override
         public void run () {
           assert _executor.get () == null;
-          _executor.set (_service.get ());
+          final Executor executor = _state;
+          _executor.set (executor);
+          if (executor._noise != null) {
+            executor._noise.enter (number);
+          }
+          if (executor._statistics != null) {
+            // Registered before any tasks run so it is visible once the executor terminates
+            final WorkerStatistics statistics = new WorkerStatistics (Thread.currentThread ()
+                .getName ());
+            executor._statistics.add (statistics);
+            _worker.set (statistics);
+          }
+          // Read once, so a worker started before the figures were is not counted as exiting
+          final ResourceUsage.Workers workers = executor.workers ();
+          if (workers != null) {
+            workers.started ();
+          }
+          if (_metrics != null) {
+            _metrics.workerStarted ();
+          }
           try {
             r.run ();
           } catch (final Throwable t) {
             _errors.add (t);
           } finally {
+            if (workers != null) {
+              workers.exited ();
+            }
+            if (_metrics != null) {
+              _metrics.workerFinished ();
+            }
+            Noise.exit ();
+            _worker.set (null);
             _executor.set (null);
           }
         }
       });
-      thread.setName (_testName + "-" + _count.incrementAndGet ());
+      thread.setName (_testName + "-" + number);
       return thread;
     }
   }
 
+  /**
+   * State of the rule for the duration of a single test.
+   */
   private class Executor {
 
     private final ExecutorService _service;
 
-    public Executor (final String testName, final Collection<Throwable> errors) {
-      _service = Executors.newCachedThreadPool (new ThreadFactoryImpl (
-          new Supplier<ExecutorService> () {
+    private final ErrorStore _errors;
 
-            @Override
-            public ExecutorService get () {
-              return _service;
-            }
-          }, testName, errors));
+    /**
+     * Shared stacks in bounded memory mode, or {@code null} if not enabled.
+     */
+    private final Stacks _stacks;
+
+    /**
+     * Statistics for each worker, or {@code null} if contention monitoring is disabled.
+     */
+    private final List<WorkerStatistics> _statistics;
+
+    /**
+     * Checks to make against the statistics, or {@code null} if contention monitoring is disabled.
+     */
+    private final List<WorkerStatistics.Check> _checks;
+
+    /**
+     * Noise to inject, or {@code null} if none.
+     */
+    private final Noise _noise;
+
+    private final Description _description;
+
+    private final String _testName;
+
+    /**
+     * Resources used by the workers, or {@code null} if they are not being recorded. Created by
+     * {@link #workers} once a {@link ResourceUsage} rule is seen for the test.
+     */
+    private volatile ResourceUsage.Workers _workers;
+
+    /**
+     * The executor of an enclosing test on the same thread, or {@code null} if none.
+     */
+    private final Executor _previous;
+
+    public Executor (final Description description, final int maxErrors,
+        final List<WorkerStatistics.Check> checks, final Noise noise, final Executor previous) {
+      _description = description;
+      _testName = TestNames.of (description);
+      _errors = new ErrorStore (maxErrors);
+      _stacks = (maxErrors < Integer.MAX_VALUE) ? new Stacks () : null;
+      _previous = previous;
+      _noise = noise;
+      _checks = checks;
+      _statistics = (checks != null) ? Collections
+          .synchronizedList (new ArrayList<WorkerStatistics> ()) : null;
+      if (checks != null) {
+        startMonitoring ();
+      }
+      // Threads are only created once the service has been published to the test thread
+      _service = Executors.newCachedThreadPool (new ThreadFactoryImpl (this, _testName, _errors));
+    }
+
+    /**
+     * Returns the figures for the workers, creating them if the test is running with a
+     * {@link ResourceUsage} rule. That rule may be applied inside this one, so is not checked
+     * until tasks are started.
+     * 
+     * @return The figures, or {@code null} if they are not being recorded.
+     */
+    public ResourceUsage.Workers workers () {
+      ResourceUsage.Workers workers = _workers;
+      if ((workers == null) && ResourceUsage.isEnabled (_description)) {
+        synchronized (this) {
+          workers = _workers;
+          if (workers == null) {
+            workers = new ResourceUsage.Workers (_testName);
+            _workers = workers;
+          }
+        }
+      }
+      return workers;
     }
 
   }
 
-  private void setup (final Description description, final Collection<Throwable> errors) {
-    assert _executor.get () == null;
-    _executor.set (new Executor (description.getDisplayName (), errors)._service);
+  /**
+   * Creates the executor for a test. The configuration of the rule is read once here so that
+   * changes made while other tests are running do not affect them.
+   * 
+   * @return The executor, never {@code null}.
+   */
+  private Executor setup (final Description description) {
+    final Executor executor = new Executor (description, _maxErrors,
+        _contentionChecks, _noise, _executor.get ());
+    _executor.set (executor);
+    if (_metrics != null) {
+      _metrics.testStarted (description.getDisplayName ());
+    }
+    if (executor._noise != null) {
+      _logger.fine (executor._noise.toString ());
+      executor._noise.enter (0);
+    }
+    return executor;
   }
 
-  private void shutdown () {
-    final ExecutorService executor = _executor.get ();
-    assert executor != null;
-    _executor.set (null);
+  private void shutdown (final Executor executor) {
+    assert _executor.get () == executor;
+    _executor.set (executor._previous);
+    Noise.exit ();
+    if ((executor._previous != null) && (executor._previous._noise != null)) {
+      executor._previous._noise.enter (0);
+    }
     _logger.finest ("Shutting down spawned threads");
-    executor.shutdown ();
+    executor._service.shutdown ();
     _logger.finest ("Waiting for threads to terminate");
-    Wait.executor (executor);
+    try {
+      Wait.executor (executor._service);
+    } finally {
+      if (executor._statistics != null) {
+        stopMonitoring ();
+      }
+    }
     _logger.finest ("Threads terminated");
+    final ResourceUsage.Workers workers = executor._workers;
+    if (workers != null) {
+      workers.record ();
+    }
+    if (executor._statistics != null) {
+      checkContention (executor._statistics, executor._checks, executor._errors);
+    }
+  }
+
+  private void checkContention (final List<WorkerStatistics> statistics,
+      final List<WorkerStatistics.Check> checks, final Collection<Throwable> errors) {
+    for (final WorkerStatistics worker : statistics) {
+      _logger.info ("Worker " + worker);
+    }
+    for (final WorkerStatistics.Check check : checks) {
+      try {
+        check.check (Collections.unmodifiableList (statistics));
+      } catch (final AssertionError e) {
+        errors.add (e);
+      }
+    }
+  }
+
+  /**
+   * Details of the noise a test ran with, attached to its failures.
+   */
+  private static final class NoiseSeed extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NoiseSeed (final Noise noise) {
+      super (noise.toString ());
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace () {
+      return this;
+    }
+
+  }
+
+  private void reportNoise (final Noise noise, final Throwable failure) {
+    if (noise != null) {
+      _logger.warning ("Failed with " + noise);
+      failure.addSuppressed (new NoiseSeed (noise));
+    }
   }
 
   // TestRule
@@ -220,18 +891,27 @@ public class Threads implements TestRule {
 
       @Override
       public void evaluate () throws Throwable {
-        final List<Throwable> errors = Collections.synchronizedList (new LinkedList<Throwable> ());
         _logger.fine ("Test started");
+        final Executor executor = setup (description);
         try {
-          setup (description, errors);
           try {
             stmt.evaluate ();
+          } catch (final Throwable t) {
+            reportNoise (executor._noise, t);
+            throw t;
           } finally {
-            shutdown ();
+            shutdown (executor);
             _logger.finest ("Checking for exceptions");
           }
         } finally {
+          if (_metrics != null) {
+            _metrics.testFinished (description.getDisplayName ());
+          }
           _logger.fine ("Test complete");
+          final List<Throwable> errors = executor._errors.failures ();
+          for (final Throwable error : errors) {
+            reportNoise (executor._noise, error);
+          }
           MultipleFailureException.assertEmpty (errors);
         }
       }
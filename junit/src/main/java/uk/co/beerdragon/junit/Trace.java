@@ -0,0 +1,300 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Rule for recording the order of events in concurrent tests with minimal disturbance to their
+ * timing. For example:
+ * 
+ * <pre class="code java">
+ * <span class="k">public class</span> <span class="i">InterleavingTest</span> {
+ * 
+ *  <span class="k">private final</span> <span class="i">Threads threads</span> = <span class="k">new</span> <span class="i">Threads</span> ();
+ * 
+ *  <span class="k">private final</span> <span class="i">Trace trace</span> = <span class="k">new</span> <span class="i">Trace</span> ();
+ * 
+ *  <span class="i">&#064;Rule</span>
+ *  <span class="k">public</span> <span class="i">RuleChain rules</span> = <span class="i">RuleChain</span>.<span class="i">outerRule</span> (<span class="i">trace</span>).<span class="i">around</span> (<span class="i">threads</span>);
+ * 
+ *  <span class="i">&#064;Test</span>
+ *  <span class="k">public void</span> <span class="i">testPublish</span> () {
+ *    <span class="i">threads</span>.<span class="i">start</span> (<span class="k">new</span> <span class="i">Runnable</span> () {
+ *      <span class="c">// ...</span>
+ *      <span class="i">trace</span>.<span class="i">record</span> (<span class="i">PUBLISHED</span>, <span class="i">sequence</span>, <span class="i">value</span>);
+ *    });
+ *    <span class="c">// ...</span>
+ *  }
+ * }
+ * </pre>
+ * 
+ * Each thread writes fixed size records (a timestamp, an event code and two values) to its own
+ * preallocated ring buffer. Recording takes no locks and, after the first record from a thread,
+ * allocates nothing. If the test fails the records from all threads are merged in timestamp order
+ * and written to the log; nothing is written if the test passes. The rule should be placed outside
+ * any {@link Threads} rule so that failures of spawned tasks are seen.
+ */
+public class Trace implements TestRule {
+
+  private static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * Number of {@code long} values in each record.
+   */
+  private static final int RECORD = 4;
+
+  private final int _capacity;
+
+  private final Logger _logger;
+
+  private final Map<Integer, String> _names = new ConcurrentHashMap<Integer, String> ();
+
+  /**
+   * Thread local buffer. A buffer belonging to a previous session is replaced on first use.
+   */
+  private final ThreadLocal<Buffer> _buffer = new ThreadLocal<Buffer> ();
+
+  private volatile Session _session;
+
+  /**
+   * Creates a new instance keeping the last 4096 records from each thread.
+   */
+  public Trace () {
+    this (DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param capacity
+   *          The number of records to keep from each thread, greater than zero.
+   */
+  public Trace (final int capacity) {
+    this (capacity, Logger.getLogger (Trace.class.getName ()));
+  }
+
+  /**
+   * Creates a new instance.
+   * 
+   * @param capacity
+   *          The number of records to keep from each thread, greater than zero.
+   * @param logger
+   *          The logging instance to write to, not {@code null}.
+   */
+  public Trace (final int capacity, final Logger logger) {
+    assert capacity > 0;
+    _capacity = capacity;
+    _logger = logger;
+  }
+
+  /**
+   * Sets a descriptive name for an event code to use when the trace is written.
+   * 
+   * @param event
+   *          The event code.
+   * @param name
+   *          The name, not {@code null}.
+   * @return This instance, for chaining.
+   */
+  public Trace name (final int event, final String name) {
+    _names.put (event, name);
+    return this;
+  }
+
+  /**
+   * Records from a single test.
+   */
+  private static final class Session {
+
+    private final long _start = System.nanoTime ();
+
+    private final ConcurrentLinkedQueue<Buffer> _buffers = new ConcurrentLinkedQueue<Buffer> ();
+
+  }
+
+  /**
+   * Ring of records written by a single thread. Only the owning thread writes to the buffer; the
+   * volatile write of {@link #_count} publishes each record to the thread merging them.
+   */
+  private static final class Buffer {
+
+    private final Session _session;
+
+    private final String _thread;
+
+    private final long[] _records;
+
+    private volatile long _count;
+
+    public Buffer (final Session session, final int capacity) {
+      _session = session;
+      _thread = Thread.currentThread ().getName ();
+      _records = new long[capacity * RECORD];
+    }
+
+    public int capacity () {
+      return _records.length / RECORD;
+    }
+
+    public int offset (final long index) {
+      return (int)(index % capacity ()) * RECORD;
+    }
+
+    public void record (final long time, final int event, final long a, final long b) {
+      final long count = _count;
+      final int offset = offset (count);
+      _records[offset] = time;
+      _records[offset + 1] = event;
+      _records[offset + 2] = a;
+      _records[offset + 3] = b;
+      _count = count + 1;
+    }
+
+  }
+
+  private Buffer buffer () {
+    final Session session = _session;
+    if (session == null) {
+      // Not running a test
+      return null;
+    }
+    Buffer buffer = _buffer.get ();
+    if ((buffer == null) || (buffer._session != session)) {
+      buffer = new Buffer (session, _capacity);
+      session._buffers.add (buffer);
+      _buffer.set (buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * Records an event. Events recorded when no test is running are ignored.
+   * 
+   * @param event
+   *          The event code.
+   * @param a
+   *          The first value to record with the event.
+   * @param b
+   *          The second value to record with the event.
+   */
+  public void record (final int event, final long a, final long b) {
+    final long time = System.nanoTime ();
+    final Buffer buffer = buffer ();
+    if (buffer != null) {
+      buffer.record (time, event, a, b);
+    }
+  }
+
+  /**
+   * Records an event.
+   * 
+   * @param event
+   *          The event code.
+   * @param a
+   *          The value to record with the event.
+   */
+  public void record (final int event, final long a) {
+    record (event, a, 0);
+  }
+
+  /**
+   * Records an event.
+   * 
+   * @param event
+   *          The event code.
+   */
+  public void record (final int event) {
+    record (event, 0, 0);
+  }
+
+  /**
+   * Merges the records from all threads in timestamp order.
+   * 
+   * @param session
+   *          The session to write, not {@code null}.
+   * @return The formatted trace, never {@code null}.
+   */
+  private String format (final Session session) {
+    final List<Buffer> buffers = new ArrayList<Buffer> (session._buffers);
+    final int[] position = new int[buffers.size ()];
+    final int[] end = new int[buffers.size ()];
+    final StringBuilder sb = new StringBuilder ();
+    for (int i = 0; i < buffers.size (); i++) {
+      final Buffer buffer = buffers.get (i);
+      final int capacity = buffer.capacity ();
+      final long count = buffer._count;
+      if (count > capacity) {
+        sb.append (buffer._thread).append (" overwrote ").append (count - capacity)
+            .append (" records\n");
+        position[i] = (int)(count % capacity);
+        end[i] = position[i] + capacity;
+      } else {
+        end[i] = (int)count;
+      }
+    }
+    while (true) {
+      int next = -1;
+      long time = 0;
+      for (int i = 0; i < position.length; i++) {
+        if (position[i] < end[i]) {
+          final Buffer buffer = buffers.get (i);
+          final long t = buffer._records[buffer.offset (position[i])];
+          if ((next < 0) || (t - time < 0)) {
+            next = i;
+            time = t;
+          }
+        }
+      }
+      if (next < 0) {
+        break;
+      }
+      final Buffer buffer = buffers.get (next);
+      final int offset = buffer.offset (position[next]++);
+      final int event = (int)buffer._records[offset + 1];
+      final String name = _names.get (event);
+      sb.append ('+').append (time - session._start).append ("ns ").append (buffer._thread)
+          .append (' ').append ((name != null) ? name : Integer.toString (event)).append (' ')
+          .append (buffer._records[offset + 2]).append (' ').append (buffer._records[offset + 3])
+          .append ('\n');
+    }
+    return sb.toString ();
+  }
+
+  // TestRule
+
+  @Override
+  public Statement apply (final Statement stmt, final Description description) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final Session session = new Session ();
+        _session = session;
+        try {
+          stmt.evaluate ();
+        } catch (final Throwable t) {
+          _logger.warning ("Trace of " + description.getDisplayName () + ":\n" + format (session));
+          throw t;
+        } finally {
+          _session = null;
+          _buffer.remove ();
+        }
+      }
+    };
+  }
+
+}
\ No newline at end of file
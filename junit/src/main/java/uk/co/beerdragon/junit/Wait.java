@@ -6,15 +6,13 @@
  */
 package uk.co.beerdragon.junit;
 
-import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertTrue;
-
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Helpers for event waiting in unit tests. These should be used whenever a condition that indicates
@@ -22,9 +20,22 @@ import java.util.concurrent.TimeUnit;
  * timeout has elapsed without observing said condition. Using these helpers allows such a timeout
  * to be controlled centrally (for example based on the speed and resources available on the build
  * agent running the test).
+ * <p>
+ * The helpers hold no state and may be used by any number of tests running concurrently. The time
+ * limit can be set with the {@value #MAX_WAIT_PROPERTY} system property.
+ * <p>
+ * The waits in progress and the number that time out can be watched through {@link Metrics}.
  */
 public final class Wait {
 
+  /**
+   * System property giving the maximum wait time in milliseconds, for example to allow for build
+   * agents running many tests concurrently. The default is 5000.
+   */
+  public static final String MAX_WAIT_PROPERTY = "uk.co.beerdragon.junit.Wait.maxWait";
+
+  private static final int MAX_WAIT = Integer.getInteger (MAX_WAIT_PROPERTY, 5000);
+
   /**
    * Prevents instantiation.
    */
@@ -40,7 +51,7 @@ public final class Wait {
    *          wait timeout in milliseconds.
    */
   /* package */static int maxWait () {
-    return 5000;
+    return MAX_WAIT;
   }
 
   /**
@@ -52,11 +63,20 @@ public final class Wait {
    *           if the wait did not complete.
    */
   public static void latch (final CountDownLatch latch) {
+    Noise.waitPoint ();
+    final Object call = Metrics.waitStarted ("latch");
+    boolean timedOut = false;
     try {
-      assertTrue (latch.await (maxWait (), TimeUnit.MILLISECONDS));
+      timedOut = !latch.await (maxWait (), TimeUnit.MILLISECONDS);
     } catch (final InterruptedException e) {
       throw new AssertionError (e);
+    } finally {
+      Metrics.waitFinished (call, timedOut);
     }
+    if (timedOut) {
+      throw new AssertionError ();
+    }
+    Noise.waitPoint ();
   }
 
   /**
@@ -68,11 +88,22 @@ public final class Wait {
    *           if the wait did not complete.
    */
   public static <T> T future (final Future<T> future) {
+    Noise.waitPoint ();
+    final Object call = Metrics.waitStarted ("future");
+    boolean timedOut = false;
+    final T value;
     try {
-      return future.get (maxWait (), TimeUnit.MILLISECONDS);
+      value = future.get (maxWait (), TimeUnit.MILLISECONDS);
+    } catch (final TimeoutException e) {
+      timedOut = true;
+      throw new AssertionError (e);
     } catch (final Exception e) {
       throw new AssertionError (e);
+    } finally {
+      Metrics.waitFinished (call, timedOut);
     }
+    Noise.waitPoint ();
+    return value;
   }
 
   /**
@@ -84,11 +115,20 @@ public final class Wait {
    *           if the wait did not complete.
    */
   public static void barrier (final CyclicBarrier barrier) {
+    Noise.waitPoint ();
+    final Object call = Metrics.waitStarted ("barrier");
+    boolean timedOut = false;
     try {
       barrier.await (maxWait (), TimeUnit.MILLISECONDS);
+    } catch (final TimeoutException e) {
+      timedOut = true;
+      throw new AssertionError (e);
     } catch (final Exception e) {
       throw new AssertionError (e);
+    } finally {
+      Metrics.waitFinished (call, timedOut);
     }
+    Noise.waitPoint ();
   }
 
   /**
@@ -100,11 +140,20 @@ public final class Wait {
    *           if the wait did not complete.
    */
   public static void executor (final ExecutorService executor) {
+    Noise.waitPoint ();
+    final Object call = Metrics.waitStarted ("executor");
+    boolean timedOut = false;
     try {
-      assertTrue (executor.awaitTermination (maxWait (), TimeUnit.MILLISECONDS));
+      timedOut = !executor.awaitTermination (maxWait (), TimeUnit.MILLISECONDS);
     } catch (final Exception e) {
       throw new AssertionError (e);
+    } finally {
+      Metrics.waitFinished (call, timedOut);
     }
+    if (timedOut) {
+      throw new AssertionError ();
+    }
+    Noise.waitPoint ();
   }
 
   /**
@@ -117,12 +166,22 @@ public final class Wait {
    *           if the wait did not complete.
    */
   public static <T> T queue (final BlockingQueue<T> queue) {
+    Noise.waitPoint ();
+    final Object call = Metrics.waitStarted ("queue");
+    boolean timedOut = false;
+    final T value;
     try {
-      final T value = queue.poll (maxWait (), TimeUnit.MILLISECONDS);
-      assertNotNull (value);
-      return value;
+      value = queue.poll (maxWait (), TimeUnit.MILLISECONDS);
+      timedOut = (value == null);
     } catch (final InterruptedException e) {
       throw new AssertionError (e);
+    } finally {
+      Metrics.waitFinished (call, timedOut);
+    }
+    if (timedOut) {
+      throw new AssertionError ();
     }
+    Noise.waitPoint ();
+    return value;
   }
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.lang.management.ThreadInfo;
+import java.util.List;
+
+/**
+ * Contention and CPU figures for a worker thread launched by {@link Threads}. The figures cover
+ * only the time spent running tasks, not the time the worker spent idle in the pool.
+ * <p>
+ * Blocked and waited times are only available if the JVM supports thread contention monitoring and
+ * CPU time is only available if the JVM supports thread CPU time measurement; otherwise they are
+ * reported as zero.
+ */
+public final class WorkerStatistics {
+
+  /**
+   * Assertion hook applied to the statistics of all workers at the end of a test.
+   */
+  public interface Check {
+
+    /**
+     * Checks the statistics.
+     * 
+     * @param workers
+     *          The statistics for each worker used by the test, not {@code null}.
+     * @throws AssertionError
+     *           if the check fails
+     */
+    void check (List<WorkerStatistics> workers);
+
+  }
+
+  private final String _name;
+
+  private volatile long _tasks;
+
+  private volatile long _blockedCount;
+
+  private volatile long _blockedTimeMillis;
+
+  private volatile long _waitedCount;
+
+  private volatile long _waitedTimeMillis;
+
+  private volatile long _cpuTimeNanos;
+
+  private volatile long _wallTimeNanos;
+
+  /* package */WorkerStatistics (final String name) {
+    _name = name;
+  }
+
+  /**
+   * Adds the difference between two snapshots of the worker thread to the totals. This is only
+   * called by the worker thread itself.
+   */
+  /* package */void add (final ThreadInfo before, final long cpuBefore, final long wallBefore,
+      final ThreadInfo after, final long cpuAfter, final long wallAfter) {
+    _tasks++;
+    if ((before != null) && (after != null)) {
+      _blockedCount += after.getBlockedCount () - before.getBlockedCount ();
+      _waitedCount += after.getWaitedCount () - before.getWaitedCount ();
+      if ((before.getBlockedTime () >= 0) && (after.getBlockedTime () >= 0)) {
+        _blockedTimeMillis += after.getBlockedTime () - before.getBlockedTime ();
+        _waitedTimeMillis += after.getWaitedTime () - before.getWaitedTime ();
+      }
+    }
+    if ((cpuBefore >= 0) && (cpuAfter >= 0)) {
+      _cpuTimeNanos += cpuAfter - cpuBefore;
+    }
+    _wallTimeNanos += wallAfter - wallBefore;
+  }
+
+  /**
+   * Returns the name of the worker thread.
+   * 
+   * @return The thread name, never {@code null}.
+   */
+  public String getName () {
+    return _name;
+  }
+
+  /**
+   * Returns the number of tasks the worker ran.
+   * 
+   * @return The task count.
+   */
+  public long getTasks () {
+    return _tasks;
+  }
+
+  /**
+   * Returns the number of times the worker blocked entering or re-entering a monitor.
+   * 
+   * @return The blocked count.
+   */
+  public long getBlockedCount () {
+    return _blockedCount;
+  }
+
+  /**
+   * Returns the total time the worker was blocked entering or re-entering a monitor.
+   * 
+   * @return The blocked time, in milliseconds.
+   */
+  public long getBlockedTimeMillis () {
+    return _blockedTimeMillis;
+  }
+
+  /**
+   * Returns the number of times the worker waited for notification or was parked.
+   * 
+   * @return The waited count.
+   */
+  public long getWaitedCount () {
+    return _waitedCount;
+  }
+
+  /**
+   * Returns the total time the worker waited for notification or was parked.
+   * 
+   * @return The waited time, in milliseconds.
+   */
+  public long getWaitedTimeMillis () {
+    return _waitedTimeMillis;
+  }
+
+  /**
+   * Returns the CPU time consumed by the worker while running tasks.
+   * 
+   * @return The CPU time, in nanoseconds.
+   */
+  public long getCpuTimeNanos () {
+    return _cpuTimeNanos;
+  }
+
+  /**
+   * Returns the elapsed time the worker spent running tasks.
+   * 
+   * @return The wall time, in nanoseconds.
+   */
+  public long getWallTimeNanos () {
+    return _wallTimeNanos;
+  }
+
+  private static long totalWallTimeNanos (final List<WorkerStatistics> workers) {
+    long total = 0;
+    for (final WorkerStatistics worker : workers) {
+      total += worker.getWallTimeNanos ();
+    }
+    return total;
+  }
+
+  private static double percent (final long millis, final long wallNanos) {
+    return (wallNanos > 0) ? (millis * 1e8) / wallNanos : 0;
+  }
+
+  /**
+   * Creates a check that the total time spent blocked by all workers is no more than a given
+   * percentage of the total time spent running tasks.
+   * 
+   * @param percent
+   *          The maximum percentage, between 0 and 100.
+   * @return The check, never {@code null}.
+   */
+  public static Check maxBlockedPercent (final double percent) {
+    return new Check () {
+
+      @Override
+      public void check (final List<WorkerStatistics> workers) {
+        long blocked = 0;
+        for (final WorkerStatistics worker : workers) {
+          blocked += worker.getBlockedTimeMillis ();
+        }
+        final double actual = percent (blocked, totalWallTimeNanos (workers));
+        if (actual > percent) {
+          throw new AssertionError ("Workers were blocked for " + actual
+              + "% of their time, expected at most " + percent + "%");
+        }
+      }
+
+    };
+  }
+
+  /**
+   * Creates a check that the total time spent waiting by all workers is no more than a given
+   * percentage of the total time spent running tasks.
+   * 
+   * @param percent
+   *          The maximum percentage, between 0 and 100.
+   * @return The check, never {@code null}.
+   */
+  public static Check maxWaitedPercent (final double percent) {
+    return new Check () {
+
+      @Override
+      public void check (final List<WorkerStatistics> workers) {
+        long waited = 0;
+        for (final WorkerStatistics worker : workers) {
+          waited += worker.getWaitedTimeMillis ();
+        }
+        final double actual = percent (waited, totalWallTimeNanos (workers));
+        if (actual > percent) {
+          throw new AssertionError ("Workers waited for " + actual
+              + "% of their time, expected at most " + percent + "%");
+        }
+      }
+
+    };
+  }
+
+  // Object
+
+  @Override
+  public String toString () {
+    return _name + ": tasks=" + _tasks + ", blocked=" + _blockedCount + "/" + _blockedTimeMillis
+        + "ms, waited=" + _waitedCount + "/" + _waitedTimeMillis + "ms, cpu="
+        + (_cpuTimeNanos / 1000000) + "ms, wall=" + (_wallTimeNanos / 1000000) + "ms";
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Operations with faster implementations on newer JVMs. This is the Java 9 implementation, using
+ * {@link StackWalker} and {@link Thread#onSpinWait}, and virtual threads when running on a JVM that
+ * has them.
+ */
+/* package */final class Platform {
+
+  /**
+   * System property that, when {@code true}, makes {@link #threadFactory} create virtual threads on
+   * JVMs that support them. Contention monitoring and {@link Profiler} do not see virtual threads.
+   */
+  /* package */static final String VIRTUAL_THREADS_PROPERTY =
+      "uk.co.beerdragon.junit.Platform.virtualThreads";
+
+  /**
+   * Includes reflection frames, as {@link Thread#getStackTrace} does.
+   */
+  private static final StackWalker WALKER = StackWalker
+      .getInstance (StackWalker.Option.SHOW_REFLECT_FRAMES);
+
+  /**
+   * {@code Thread.ofVirtual ().factory ()} if available, otherwise {@code null}.
+   */
+  private static final MethodHandle VIRTUAL_FACTORY = virtualFactory ();
+
+  /**
+   * Prevents instantiation.
+   */
+  private Platform () {
+  }
+
+  private static MethodHandle virtualFactory () {
+    try {
+      final MethodHandles.Lookup lookup = MethodHandles.publicLookup ();
+      final Class<?> builder = Class.forName ("java.lang.Thread$Builder$OfVirtual");
+      final MethodHandle ofVirtual = lookup.findStatic (Thread.class, "ofVirtual", MethodType
+          .methodType (builder));
+      final MethodHandle factory = lookup.findVirtual (builder, "factory", MethodType.methodType (
+          ThreadFactory.class));
+      return MethodHandles.filterReturnValue (ofVirtual, factory);
+    } catch (final ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the name of the implementation in use.
+   * 
+   * @return The name, never {@code null}.
+   */
+  /* package */static String name () {
+    return "java9";
+  }
+
+  /**
+   * Captures the stack of the calling thread.
+   * 
+   * @return The stack, starting with the method that called this one.
+   */
+  /* package */static StackTraceElement[] stack () {
+    return WALKER.walk (frames -> frames.skip (1).map (StackWalker.StackFrame::toStackTraceElement)
+        .toArray (StackTraceElement[]::new));
+  }
+
+  /**
+   * Hints that the caller is in a spin loop.
+   */
+  /* package */static void onSpinWait () {
+    Thread.onSpinWait ();
+  }
+
+  /**
+   * Returns a factory for the worker threads of the {@link Threads} rule.
+   * 
+   * @return The factory, never {@code null}.
+   */
+  /* package */static ThreadFactory threadFactory () {
+    if ((VIRTUAL_FACTORY != null) && Boolean.getBoolean (VIRTUAL_THREADS_PROPERTY)) {
+      try {
+        return (ThreadFactory)VIRTUAL_FACTORY.invoke ();
+      } catch (final Throwable t) {
+        throw new IllegalStateException (t);
+      }
+    }
+    return Executors.defaultThreadFactory ();
+  }
+
+}
\ No newline at end of file
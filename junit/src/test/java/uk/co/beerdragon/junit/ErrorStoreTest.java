@@ -0,0 +1,67 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ErrorStore}.
+ */
+public class ErrorStoreTest {
+
+  /**
+   * Tests errors are kept in order when within the limit.
+   */
+  @Test
+  public void testWithinLimit () {
+    final ErrorStore store = new ErrorStore (Integer.MAX_VALUE);
+    assertTrue (store.isEmpty ());
+    final Throwable[] errors = new Throwable[10];
+    for (int i = 0; i < errors.length; i++) {
+      errors[i] = new RuntimeException (Integer.toString (i));
+      store.add (errors[i]);
+    }
+    assertEquals (10, store.size ());
+    assertEquals (0, store.dropped ());
+    final Iterator<Throwable> itr = store.iterator ();
+    for (final Throwable error : errors) {
+      assertSame (error, itr.next ());
+    }
+    final List<Throwable> failures = store.failures ();
+    assertEquals (10, failures.size ());
+    assertSame (errors[9], failures.get (9));
+  }
+
+  /**
+   * Tests errors beyond the limit are counted by type.
+   */
+  @Test
+  public void testBeyondLimit () {
+    final ErrorStore store = new ErrorStore (2);
+    final Throwable first = new IllegalStateException ();
+    store.add (first);
+    store.add (new AssertionError ());
+    store.add (new IllegalStateException ());
+    store.add (new AssertionError ());
+    store.add (new IllegalStateException ());
+    assertEquals (2, store.size ());
+    assertEquals (3, store.dropped ());
+    final List<Throwable> failures = store.failures ();
+    assertEquals (3, failures.size ());
+    assertSame (first, failures.get (0));
+    assertEquals ("3 further failure(s) not retained:\n  1 x java.lang.AssertionError\n"
+        + "  2 x java.lang.IllegalStateException", failures.get (2).getMessage ());
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Histogram}.
+ */
+public class HistogramTest {
+
+  /**
+   * Tests the bucket boundaries are contiguous and bound their values.
+   */
+  @Test
+  public void testBuckets () {
+    long previous = -1;
+    for (int i = 0; i < Histogram.bucket (Long.MAX_VALUE); i++) {
+      final long upper = Histogram.upperBound (i);
+      assertTrue (upper > previous);
+      assertEquals (i, Histogram.bucket (previous + 1));
+      assertEquals (i, Histogram.bucket (upper));
+      previous = upper;
+    }
+  }
+
+  /**
+   * Tests percentiles are reported within the error bound.
+   */
+  @Test
+  public void testPercentiles () {
+    final Histogram histogram = new Histogram ();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record (i * 1000);
+    }
+    assertEquals (1000, histogram.count ());
+    assertEquals (1000000, histogram.max ());
+    assertEquals (500500.0, histogram.mean (), 0.0);
+    final long p50 = histogram.percentile (50);
+    assertTrue (p50 >= 500000 && p50 <= 500000 * 17 / 16);
+    final long p99 = histogram.percentile (99);
+    assertTrue (p99 >= 990000 && p99 <= 1000000);
+    assertEquals (1000000, histogram.percentile (100));
+  }
+
+  /**
+   * Tests merging two histograms.
+   */
+  @Test
+  public void testMerge () {
+    final Histogram a = new Histogram ();
+    final Histogram b = new Histogram ();
+    a.record (10);
+    b.record (20);
+    b.record (-5);
+    a.merge (b);
+    assertEquals (3, a.count ());
+    assertEquals (20, a.max ());
+    assertEquals (0, a.percentile (1));
+    assertEquals (20, a.percentile (100));
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link Interleavings}.
+ */
+public class InterleavingsTest {
+
+  /**
+   * Launches the explored tasks.
+   */
+  @Rule
+  public Threads threads = new Threads ();
+
+  /**
+   * Two tasks incrementing a shared counter, either with a separate read and write or atomically.
+   */
+  private static final class Increments implements Interleavings.Scenario {
+
+    private final boolean _atomic;
+
+    private final AtomicInteger _runs = new AtomicInteger ();
+
+    private AtomicInteger _counter;
+
+    public Increments (final boolean atomic) {
+      _atomic = atomic;
+    }
+
+    @Override
+    public Runnable[] setUp () {
+      _runs.incrementAndGet ();
+      final AtomicInteger counter = new AtomicInteger ();
+      _counter = counter;
+      final Runnable increment = new Runnable () {
+
+        @Override
+        public void run () {
+          if (_atomic) {
+            Interleavings.yield ();
+            counter.incrementAndGet ();
+          } else {
+            final int value = counter.get ();
+            Interleavings.yield ();
+            counter.set (value + 1);
+          }
+        }
+
+      };
+      return new Runnable[] {increment, increment };
+    }
+
+    @Override
+    public void check () {
+      assertEquals (2, _counter.get ());
+    }
+
+  }
+
+  /**
+   * Tests a lost update is found and its schedule can be replayed.
+   */
+  @Test
+  public void testLostUpdate () {
+    final Increments scenario = new Increments (false);
+    final String schedule;
+    try {
+      new Interleavings (threads, 1).parallelism (1).explore (scenario);
+      fail ();
+      return;
+    } catch (final AssertionError e) {
+      assertTrue (e.getMessage (), e.getMessage ().startsWith ("Schedule "));
+      schedule = e.getMessage ().substring (9, e.getMessage ().indexOf (" failed"));
+    }
+    for (int i = 0; i < 10; i++) {
+      try {
+        new Interleavings (threads, 1).replay (scenario, schedule);
+        fail ();
+      } catch (final AssertionError e) {
+        assertEquals ("Schedule " + schedule + " failed", e.getMessage ());
+      }
+    }
+  }
+
+  /**
+   * Tests a lost update needs a preemption to be found.
+   */
+  @Test
+  public void testPreemptionBound () {
+    final Increments scenario = new Increments (false);
+    assertEquals (2, new Interleavings (threads, 0).explore (scenario));
+    assertEquals (2, scenario._runs.get ());
+  }
+
+  /**
+   * Tests all schedules of a correct scenario are explored.
+   */
+  @Test
+  public void testCorrect () {
+    final Increments scenario = new Increments (true);
+    final long schedules = new Interleavings (threads, 2).explore (scenario);
+    // Each task has a single scheduling point, giving six distinct orderings of its two steps
+    assertEquals (6, schedules);
+    assertEquals (6, scenario._runs.get ());
+  }
+
+  /**
+   * Tests the number of schedules explored can be limited.
+   */
+  @Test
+  public void testLimit () {
+    final Increments scenario = new Increments (true);
+    assertEquals (1, new Interleavings (threads, 2).parallelism (1).limit (1).explore (scenario));
+  }
+
+  /**
+   * Tests a schedule that blocks outside the scheduler is reported before the exploration gives up
+   * waiting for it.
+   */
+  @Test
+  public void testBlocked () {
+    final CountDownLatch release = new CountDownLatch (1);
+    try {
+      new Interleavings (threads, 0).explore (new Interleavings.Scenario () {
+
+        @Override
+        public Runnable[] setUp () {
+          return new Runnable[] {new Runnable () {
+
+            @Override
+            public void run () {
+              try {
+                release.await ();
+              } catch (final InterruptedException e) {
+                throw new AssertionError (e);
+              }
+            }
+
+          } };
+        }
+
+        @Override
+        public void check () {
+          // No-op
+        }
+
+      });
+      fail ();
+    } catch (final AssertionError e) {
+      assertEquals ("Schedule  failed", e.getMessage ());
+    } finally {
+      release.countDown ();
+    }
+  }
+
+  /**
+   * Tests scheduling points do nothing outside of an exploration.
+   */
+  @Test
+  public void testNoExploration () {
+    Interleavings.yield ();
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link Linearizability}.
+ */
+public class LinearizabilityTest {
+
+  /**
+   * Workers for the concurrent history test.
+   */
+  @Rule
+  public Threads threads = new Threads ();
+
+  /**
+   * Sequential specification of a map, partitioned by key. The state of each partition is the
+   * value, or a placeholder if the key is absent.
+   */
+  private static final Linearizability.Specification<Object> MAP =
+      new Linearizability.Specification<Object> () {
+
+    private final Object _absent = "<absent>";
+
+    @Override
+    public Object initial (final Object key) {
+      return _absent;
+    }
+
+    @Override
+    public Linearizability.Step<Object> apply (final Object state,
+        final History.Operation operation) {
+      final Object previous = (state == _absent) ? null : state;
+      switch (operation.getName ()) {
+        case "get":
+          return Linearizability.Step.of (state, previous);
+        case "put":
+          return Linearizability.Step.of (operation.getArguments ()[1], previous);
+        default:
+          throw new IllegalArgumentException (operation.getName ());
+      }
+    }
+
+  };
+
+  /**
+   * Tests a sequential history consistent with the specification.
+   */
+  @Test
+  public void testSequential () {
+    final History history = new History ();
+    history.invoke ("A", "put", "A", 1).returned (null);
+    history.invoke ("A", "get", "A").returned (1);
+    history.invoke ("B", "get", "B").returned (null);
+    history.invoke ("A", "put", "A", 2).returned (1);
+
+    Linearizability.check (history, MAP);
+  }
+
+  /**
+   * Tests overlapping operations that can be reordered to satisfy the specification.
+   */
+  @Test
+  public void testOverlapping () {
+    final History history = new History ();
+    final History.Operation get = history.invoke ("A", "get", "A");
+    final History.Operation put = history.invoke ("A", "put", "A", 1);
+    put.returned (null);
+    get.returned (1);
+    history.invoke ("A", "put", "A", 2); // Pending
+
+    Linearizability.check (history, MAP);
+  }
+
+  /**
+   * Tests a history that cannot be linearized reports the shortest failing prefix.
+   */
+  @Test
+  public void testViolation () {
+    final History history = new History ();
+    history.invoke ("A", "put", "A", 1).returned (null);
+    history.invoke ("B", "put", "B", 1).returned (null);
+    history.invoke ("A", "get", "A").returned (2);
+    history.invoke ("A", "put", "A", 2).returned (1);
+    history.invoke ("A", "get", "A").returned (2);
+
+    final List<History.Operation> violation = Linearizability.violation (history, MAP);
+    assertEquals (2, violation.size ());
+    assertEquals ("put", violation.get (0).getName ());
+    assertEquals ("get", violation.get (1).getName ());
+    assertEquals (2, violation.get (1).getResult ());
+    try {
+      Linearizability.check (history, MAP);
+      fail ();
+    } catch (final AssertionError e) {
+      assertTrue (e.getMessage ().startsWith ("History is not linearizable:\n  ["));
+    }
+  }
+
+  /**
+   * Tests a large history recorded from concurrent tasks.
+   */
+  @Test
+  public void testConcurrentHistory () {
+    final ConcurrentMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer> ();
+    final History history = new History ();
+    final int tasks = 4;
+    final CountDownLatch complete = new CountDownLatch (tasks);
+    for (int i = 0; i < tasks; i++) {
+      final int task = i;
+      threads.start (new Runnable () {
+
+        @Override
+        public void run () {
+          for (int j = 0; j < 5000; j++) {
+            final Integer key = j % 100;
+            if ((j & 1) == 0) {
+              final History.Operation op = history.invoke (key, "put", key, task * 10000 + j);
+              op.returned (map.put (key, task * 10000 + j));
+            } else {
+              final History.Operation op = history.invoke (key, "get", key);
+              op.returned (map.get (key));
+            }
+          }
+          complete.countDown ();
+        }
+
+      });
+    }
+    Wait.latch (complete);
+
+    assertNull (Linearizability.violation (history, MAP));
+  }
+
+  /**
+   * Tests the formatting of an operation.
+   */
+  @Test
+  public void testOperationToString () {
+    final History history = new History ();
+    final History.Operation op = history.invoke ("A", "put", "A", 1);
+    assertTrue (op.toString ().matches ("\\[1, \\.\\.\\.\\] \\S+ put \\(A, 1\\)"));
+    op.returned (null);
+    assertTrue (op.toString ().matches ("\\[1, 2\\] \\S+ put \\(A, 1\\) -> null"));
+    assertTrue (Objects.equals (null, op.getResult ()));
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link Metrics}.
+ */
+public class MetricsTest {
+
+  private static final MBeanServer SERVER = ManagementFactory.getPlatformMBeanServer ();
+
+  /**
+   * Finds the registered {@link Threads} MBean running a test.
+   */
+  private static ObjectName threadsMBean (final String test) throws Exception {
+    for (final ObjectName name : SERVER.queryNames (new ObjectName (Metrics.DOMAIN
+        + ":type=Threads,*"), null)) {
+      if (Arrays.asList ((String[])SERVER.getAttribute (name, "Tests")).contains (test)) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Polls an attribute until it has the expected value or the time limit passes.
+   */
+  private static Object poll (final ObjectName name, final String attribute, final Object expected)
+      throws Exception {
+    final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ());
+    Object value;
+    while (!expected.equals (value = SERVER.getAttribute (name, attribute))
+        && (System.nanoTime () - deadline < 0)) {
+      Thread.sleep (10);
+    }
+    return value;
+  }
+
+  /**
+   * Tests the {@link Threads} counters are published while a test runs.
+   */
+  @Test
+  public void testThreads () throws Throwable {
+    Metrics.enable ();
+    final Threads threads = new Threads ();
+    final Description description = Description.createTestDescription (getClass (),
+        "testThreads");
+    final CountDownLatch release = new CountDownLatch (1);
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final ObjectName name = threadsMBean (description.getDisplayName ());
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            throw new IllegalStateException ("FOO");
+          }
+
+        });
+        assertEquals (1L, poll (name, "TasksFailed", 1L));
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            Wait.latch (release);
+          }
+
+        });
+        assertEquals (1L, poll (name, "TasksRunning", 1L));
+        assertEquals (2L, SERVER.getAttribute (name, "TasksSubmitted"));
+        assertTrue ((Long)SERVER.getAttribute (name, "ActiveWorkers") >= 1);
+        release.countDown ();
+        assertEquals (0L, poll (name, "TasksRunning", 0L));
+      }
+
+    };
+
+    try {
+      threads.apply (statement, description).evaluate ();
+      fail ();
+    } catch (final IllegalStateException e) {
+      assertEquals ("FOO", e.getMessage ());
+    }
+    assertNull (threadsMBean (description.getDisplayName ()));
+  }
+
+  /**
+   * Tests a wait in progress is published.
+   */
+  @Test
+  public void testWaitInProgress () throws Throwable {
+    Metrics.enable ();
+    final ObjectName name = new ObjectName (Metrics.DOMAIN + ":type=Wait");
+    final long waits = (Long)SERVER.getAttribute (name, "Waits");
+    final CountDownLatch latch = new CountDownLatch (1);
+    final Thread waiter = new Thread ("MetricsTest-waiter") {
+
+      @Override
+      public void run () {
+        Wait.latch (latch);
+      }
+
+    };
+    waiter.start ();
+    try {
+      assertEquals (waits + 1, poll (name, "Waits", waits + 1));
+      boolean found = false;
+      for (final String wait : (String[])SERVER.getAttribute (name, "WaitsInProgressDetail")) {
+        found |= wait.startsWith ("latch on MetricsTest-waiter for ");
+      }
+      assertTrue (found);
+      assertTrue ((Integer)SERVER.getAttribute (name, "WaitsInProgress") >= 1);
+      assertTrue ((Long)SERVER.getAttribute (name, "LongestWaitInProgress") >= 0);
+    } finally {
+      latch.countDown ();
+      waiter.join ();
+    }
+  }
+
+  /**
+   * Tests timeouts are counted.
+   */
+  @Test
+  public void testWaitTimeout () throws Exception {
+    Metrics.enable ();
+    final long timeouts = Metrics.waits ().getTimeouts ();
+    final CountDownLatch latch = mock (CountDownLatch.class);
+    when (latch.await (Wait.maxWait (), TimeUnit.MILLISECONDS)).thenReturn (false);
+    try {
+      Wait.latch (latch);
+      fail ();
+    } catch (final AssertionError e) {
+      // Expected
+    }
+    assertEquals (timeouts + 1, Metrics.waits ().getTimeouts ());
+  }
+
+}
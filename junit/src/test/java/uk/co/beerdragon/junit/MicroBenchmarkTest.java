@@ -0,0 +1,174 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link MicroBenchmark}.
+ */
+public class MicroBenchmarkTest {
+
+  /**
+   * Directory for the results files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder ();
+
+  private static final Description DESCRIPTION = Description.createTestDescription (
+      MicroBenchmarkTest.class, "testMethod");
+
+  /**
+   * Tests a single threaded measurement.
+   */
+  @Test
+  public void testSingleThread () throws Throwable {
+    final File directory = folder.getRoot ();
+    final MicroBenchmark benchmark = new MicroBenchmark (null, directory,
+        Logger.getLogger (MicroBenchmarkTest.class.getName ()));
+    final AtomicInteger count = new AtomicInteger ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final MicroBenchmark.Result result = benchmark.warmUp (10).iterations (100).run ("count",
+            new Runnable () {
+
+              @Override
+              public void run () {
+                count.incrementAndGet ();
+              }
+
+            });
+        assertEquals (1, result.threads ());
+        assertEquals (100, result.latency ().count ());
+        result.assertOpsPerSecond (1).assertP99 (1, TimeUnit.SECONDS);
+        try {
+          result.assertOpsPerSecond (Double.MAX_VALUE);
+          fail ();
+        } catch (final AssertionError e) {
+          // Expected
+        }
+        try {
+          result.assertPercentile (100, -1, TimeUnit.NANOSECONDS);
+          fail ();
+        } catch (final AssertionError e) {
+          // Expected
+        }
+      }
+
+    };
+
+    benchmark.apply (statement, DESCRIPTION).evaluate ();
+
+    assertEquals (110, count.get ());
+    final List<String> lines = Files.readAllLines (new File (directory, MicroBenchmarkTest.class
+        .getName () + ".tsv").toPath (), StandardCharsets.UTF_8);
+    assertEquals (1, lines.size ());
+    final String[] fields = lines.get (0).split ("\t");
+    assertEquals ("testMethod", fields[1]);
+    assertEquals ("count", fields[2]);
+    assertEquals ("1", fields[3]);
+    assertEquals ("100", fields[4]);
+  }
+
+  /**
+   * Tests a measurement across several threads.
+   */
+  @Test
+  public void testMultipleThreads () throws Throwable {
+    final Threads threads = new Threads ();
+    final MicroBenchmark benchmark = new MicroBenchmark (threads, folder.getRoot (),
+        Logger.getLogger (MicroBenchmarkTest.class.getName ()));
+    final AtomicInteger count = new AtomicInteger ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final MicroBenchmark.Result result = benchmark.threads (4).warmUp (0).iterations (50)
+            .run ("count", new Runnable () {
+
+              @Override
+              public void run () {
+                count.incrementAndGet ();
+              }
+
+            });
+        assertEquals (4, result.threads ());
+        assertEquals (200, result.latency ().count ());
+        assertTrue (result.opsPerSecond () > 0);
+      }
+
+    };
+
+    threads.apply (benchmark.apply (statement, DESCRIPTION), DESCRIPTION).evaluate ();
+
+    assertEquals (200, count.get ());
+  }
+
+  /**
+   * Tests a worker failing during warm-up releases the others and its failure is reported.
+   */
+  @Test
+  public void testWorkerFailure () throws Throwable {
+    final Threads threads = new Threads ();
+    final MicroBenchmark benchmark = new MicroBenchmark (threads, folder.getRoot (),
+        Logger.getLogger (MicroBenchmarkTest.class.getName ()));
+    final AtomicInteger count = new AtomicInteger ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        benchmark.threads (4).warmUp (10).iterations (50).run ("fail", new Runnable () {
+
+          @Override
+          public void run () {
+            if (count.incrementAndGet () == 5) {
+              throw new IllegalStateException ("FOO");
+            }
+          }
+
+        });
+        fail ();
+      }
+
+    };
+    final long start = System.nanoTime ();
+    try {
+      threads.apply (benchmark.apply (statement, DESCRIPTION), DESCRIPTION).evaluate ();
+      fail ();
+    } catch (final IllegalStateException e) {
+      assertEquals ("FOO", e.getMessage ());
+    }
+    assertTrue (System.nanoTime () - start < TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ()));
+  }
+
+  /**
+   * Tests that multiple threads can't be requested without a {@link Threads} rule.
+   */
+  @Test (expected = IllegalStateException.class)
+  public void testThreadsRequired () {
+    new MicroBenchmark ().threads (2);
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link Noise}.
+ */
+public class NoiseTest {
+
+  /**
+   * Tests the decisions for a thread are determined by the seed.
+   */
+  @Test
+  public void testReplay () {
+    final Noise noise = new Noise (1234L, 0.5);
+    final Noise.Source a = new Noise.Source (noise, 1);
+    final Noise.Source b = new Noise.Source (noise, 1);
+    final Noise.Source c = new Noise.Source (noise, 2);
+    boolean different = false;
+    for (int i = 0; i < 100; i++) {
+      final int next = a.next ();
+      assertEquals (next, b.next ());
+      different |= (next != c.next ());
+    }
+    assertTrue (different);
+  }
+
+  /**
+   * Tests nothing is injected at zero intensity.
+   */
+  @Test
+  public void testZeroIntensity () {
+    final Noise.Source source = new Noise.Source (new Noise (0.0), 0);
+    for (int i = 0; i < 100; i++) {
+      assertEquals (Noise.Source.NONE, source.next ());
+    }
+  }
+
+  /**
+   * Tests instrumentation points do nothing outside of a test using noise.
+   */
+  @Test
+  public void testNoNoise () {
+    Noise.point ();
+    Noise.waitPoint ();
+  }
+
+  private static final class Counter {
+
+    private volatile int _value;
+
+  }
+
+  /**
+   * Tests noise exposes a lost update between a read and a write. The instrumentation point
+   * widens the window between the two so that concurrent increments are reliably lost.
+   */
+  @Test
+  public void testLostUpdate () throws Throwable {
+    final Threads threads = new Threads ().noise (new Noise (1.0).aroundWaits ());
+    final Counter counter = new Counter ();
+    final int tasks = 2;
+    final int increments = 1000;
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final CyclicBarrier barrier = new CyclicBarrier (tasks);
+        final CountDownLatch complete = new CountDownLatch (tasks);
+        for (int i = 0; i < tasks; i++) {
+          threads.start (new Runnable () {
+
+            @Override
+            public void run () {
+              Wait.barrier (barrier);
+              for (int j = 0; j < increments; j++) {
+                final int value = counter._value;
+                Noise.point ();
+                counter._value = value + 1;
+              }
+              complete.countDown ();
+            }
+
+          });
+        }
+        Wait.latch (complete);
+      }
+
+    };
+
+    threads.apply (statement, mock (Description.class)).evaluate ();
+
+    assertTrue (counter._value < tasks * increments);
+  }
+
+  /**
+   * Tests the seed is attached to the failure of a test using noise.
+   */
+  @Test
+  public void testSeedReported () throws Throwable {
+    final Threads threads = new Threads ().noise (new Noise (42L, 0.1));
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            throw new IllegalStateException ("FOO");
+          }
+
+        });
+      }
+
+    };
+
+    try {
+      threads.apply (statement, mock (Description.class)).evaluate ();
+      fail ();
+    } catch (final IllegalStateException e) {
+      assertEquals (1, e.getSuppressed ().length);
+      assertTrue (e.getSuppressed ()[0].getMessage ().startsWith ("Noise seed 42 "));
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Tests {@link ParallelRunner}.
+ */
+public class ParallelRunnerTest {
+
+  private static final int METHODS = 4;
+
+  /**
+   * Shared by all of the concurrently running tests.
+   */
+  private static final Threads SHARED = new Threads ();
+
+  private static final CyclicBarrier BARRIER = new CyclicBarrier (METHODS);
+
+  /**
+   * Test methods that run concurrently with a single {@link Threads} instance.
+   */
+  public static class Isolation {
+
+    /**
+     * Shared rule instance.
+     */
+    @Rule
+    public Threads threads = SHARED;
+
+    private void run (final String name, final boolean fail) {
+      final CountDownLatch nested = new CountDownLatch (1);
+      Wait.barrier (BARRIER);
+      threads.start (new Runnable () {
+
+        @Override
+        public void run () {
+          // Workers are named after the test whose executor created them
+          assertTrue (Thread.currentThread ().getName (), Thread.currentThread ().getName ()
+              .startsWith (name + "(" + Isolation.class.getName () + ")-"));
+          threads.start (new Runnable () {
+
+            @Override
+            public void run () {
+              try {
+                assertTrue (Thread.currentThread ().getName ().startsWith (name + "("));
+                Wait.barrier (BARRIER);
+                if (fail) {
+                  throw new IllegalStateException (name);
+                }
+              } finally {
+                nested.countDown ();
+              }
+            }
+
+          });
+        }
+
+      });
+      Wait.latch (nested);
+    }
+
+    /**
+     * Fails in a nested task.
+     */
+    @Test
+    public void fail1 () {
+      run ("fail1", true);
+    }
+
+    /**
+     * Fails in a nested task.
+     */
+    @Test
+    public void fail2 () {
+      run ("fail2", true);
+    }
+
+    /**
+     * Passes.
+     */
+    @Test
+    public void pass1 () {
+      run ("pass1", false);
+    }
+
+    /**
+     * Passes.
+     */
+    @Test
+    public void pass2 () {
+      run ("pass2", false);
+    }
+
+  }
+
+  /**
+   * Tests errors and executors are isolated between concurrently running tests.
+   */
+  @Test
+  public void testIsolation () throws Exception {
+    final String previous = System.getProperty (ParallelRunner.THREADS_PROPERTY);
+    System.setProperty (ParallelRunner.THREADS_PROPERTY, Integer.toString (METHODS));
+    final ParallelRunner runner;
+    try {
+      runner = new ParallelRunner (Isolation.class);
+    } finally {
+      if (previous != null) {
+        System.setProperty (ParallelRunner.THREADS_PROPERTY, previous);
+      } else {
+        System.clearProperty (ParallelRunner.THREADS_PROPERTY);
+      }
+    }
+    final Result result = new JUnitCore ().run (Request.runner (runner));
+    assertEquals (METHODS, result.getRunCount ());
+    final Map<String, String> failures = new HashMap<String, String> ();
+    for (final Failure failure : result.getFailures ()) {
+      failures.put (failure.getDescription ().getMethodName (), failure.getMessage ());
+    }
+    assertEquals (2, failures.size ());
+    assertEquals ("fail1", failures.get ("fail1"));
+    assertEquals ("fail2", failures.get ("fail2"));
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Platform} from the packaged multi-release JAR, where the overlay for the running JVM
+ * is selected.
+ */
+public class PlatformIT extends PlatformTest {
+
+  @Override
+  protected String expectedName () {
+    return System.getProperty ("java.specification.version").startsWith ("1.") ? "java7" : "java9";
+  }
+
+  /**
+   * Tests virtual threads are used when requested and available.
+   */
+  @Test
+  public void testVirtualThreads () throws Exception {
+    System.setProperty (Platform.VIRTUAL_THREADS_PROPERTY, "true");
+    final Thread thread;
+    try {
+      final CountDownLatch ran = new CountDownLatch (1);
+      thread = Platform.threadFactory ().newThread (new Runnable () {
+
+        @Override
+        public void run () {
+          ran.countDown ();
+        }
+
+      });
+      thread.start ();
+      Wait.latch (ran);
+    } finally {
+      System.clearProperty (Platform.VIRTUAL_THREADS_PROPERTY);
+    }
+    Method isVirtual;
+    try {
+      isVirtual = Thread.class.getMethod ("isVirtual");
+    } catch (final NoSuchMethodException e) {
+      return;
+    }
+    assertEquals (Boolean.TRUE, isVirtual.invoke (thread));
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Platform}. The same tests are run against the packaged multi-release JAR by
+ * {@link PlatformIT}, so that each overlay is checked to behave as the baseline does.
+ */
+public class PlatformTest {
+
+  /**
+   * Returns the name of the implementation expected to be in use.
+   * 
+   * @return The name.
+   */
+  protected String expectedName () {
+    return "java7";
+  }
+
+  /**
+   * Tests the expected implementation is in use.
+   */
+  @Test
+  public void testName () {
+    assertEquals (expectedName (), Platform.name ());
+  }
+
+  private static StackTraceElement[][] capture () {
+    return new StackTraceElement[][] {Platform.stack (), Thread.currentThread ().getStackTrace () };
+  }
+
+  /**
+   * Tests the captured stack starts at the caller and matches the one from the thread.
+   */
+  @Test
+  public void testStack () {
+    final StackTraceElement[][] stacks = capture ();
+    final StackTraceElement[] platform = stacks[0];
+    final StackTraceElement[] thread = stacks[1];
+    assertEquals ("capture", platform[0].getMethodName ());
+    assertEquals ("testStack", platform[1].getMethodName ());
+    // The thread stack also includes Thread.getStackTrace
+    assertEquals (thread.length - 1, platform.length);
+    for (int i = 1; i < platform.length; i++) {
+      assertEquals (thread[i + 1].getClassName (), platform[i].getClassName ());
+      assertEquals (thread[i + 1].getMethodName (), platform[i].getMethodName ());
+      assertEquals (thread[i + 1].getLineNumber (), platform[i].getLineNumber ());
+    }
+  }
+
+  /**
+   * Tests the spin hint returns.
+   */
+  @Test
+  public void testOnSpinWait () {
+    for (int i = 0; i < 1000; i++) {
+      Platform.onSpinWait ();
+    }
+  }
+
+  /**
+   * Tests the thread factory creates working threads.
+   */
+  @Test
+  public void testThreadFactory () throws InterruptedException {
+    final CountDownLatch ran = new CountDownLatch (1);
+    final Thread thread = Platform.threadFactory ().newThread (new Runnable () {
+
+      @Override
+      public void run () {
+        ran.countDown ();
+      }
+
+    });
+    thread.setName ("Platform-test");
+    thread.start ();
+    Wait.latch (ran);
+    thread.join ();
+    assertTrue (!thread.isAlive ());
+  }
+
+}
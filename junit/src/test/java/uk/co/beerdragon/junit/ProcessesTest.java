@@ -0,0 +1,149 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link Processes}.
+ */
+public class ProcessesTest {
+
+  /**
+   * Sends its index and first argument back to the test.
+   */
+  public static final class Echo implements Processes.Entry {
+
+    @Override
+    public void run (final Processes.Channel channel, final String... args) throws Exception {
+      channel.send (channel.getIndex ());
+      channel.send (args[0]);
+    }
+
+  }
+
+  /**
+   * Fails.
+   */
+  public static final class Failing implements Processes.Entry {
+
+    @Override
+    public void run (final Processes.Channel channel, final String... args) {
+      throw new IllegalStateException ("Child failed");
+    }
+
+  }
+
+  /**
+   * Tests values are received from several children.
+   */
+  @Test
+  public void testChildren () throws Throwable {
+    final Processes processes = new Processes ().jvmArguments ("-Xmx32m");
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final Set<Object> indices = new HashSet<Object> ();
+        for (final Processes.Child child : processes.start (3, Echo.class, "Foo")) {
+          indices.add (child.receive ());
+          assertEquals ("Foo", child.receive ());
+          assertEquals (0, child.waitFor ());
+        }
+        assertEquals (3, indices.size ());
+      }
+
+    };
+    processes.apply (statement, mock (Description.class)).evaluate ();
+  }
+
+  /**
+   * Tests connections that do not identify a child are dropped without affecting the children.
+   */
+  @Test
+  public void testStrayConnections () throws Throwable {
+    final Processes processes = new Processes ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        new Socket (InetAddress.getLoopbackAddress (), processes.port ()).close ();
+        try (final Socket socket = new Socket (InetAddress.getLoopbackAddress (), processes
+            .port ())) {
+          new DataOutputStream (socket.getOutputStream ()).writeInt (42);
+        }
+        final Processes.Child child = processes.start (Echo.class, "Foo");
+        assertEquals (0, child.receive ());
+        assertEquals ("Foo", child.receive ());
+        assertEquals (0, child.waitFor ());
+      }
+
+    };
+    processes.apply (statement, mock (Description.class)).evaluate ();
+  }
+
+  /**
+   * Tests a failure in a child fails the test.
+   */
+  @Test
+  public void testChildFailure () throws Throwable {
+    final Processes processes = new Processes ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        processes.start (Failing.class);
+      }
+
+    };
+    try {
+      processes.apply (statement, mock (Description.class)).evaluate ();
+      fail ();
+    } catch (final IllegalStateException e) {
+      assertEquals ("Child failed", e.getMessage ());
+    }
+  }
+
+  /**
+   * Tests a child that exits without connecting fails the test at once, with its error output.
+   */
+  @Test
+  public void testChildNotConnecting () throws Throwable {
+    final Processes processes = new Processes ().jvmArguments ("-XX:+NoSuchTestOption");
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        processes.start (Echo.class, "Foo");
+      }
+
+    };
+    final long start = System.nanoTime ();
+    try {
+      processes.apply (statement, mock (Description.class)).evaluate ();
+      fail ();
+    } catch (final AssertionError e) {
+      assertTrue (e.getMessage (), e.getMessage ().contains ("without connecting"));
+      assertTrue (e.getMessage (), e.getMessage ().contains ("NoSuchTestOption"));
+    }
+    assertTrue ((System.nanoTime () - start) / 1000000 < Wait.maxWait ());
+  }
+
+}
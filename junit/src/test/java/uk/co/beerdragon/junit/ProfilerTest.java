@@ -0,0 +1,118 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link Profiler}.
+ */
+public class ProfilerTest {
+
+  /**
+   * Directory for the profile output.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder ();
+
+  /**
+   * Tests the file name conversion.
+   */
+  @Test
+  public void testFileName () {
+    assertEquals ("testFoo_uk.co.Bar_.collapsed", Profiler.fileName ("testFoo(uk.co.Bar)"));
+  }
+
+  private static void spin (final long millis) {
+    final long end = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (millis);
+    while (System.nanoTime () - end < 0) {
+      // Busy wait
+    }
+  }
+
+  /**
+   * Tests that the test thread and a worker thread are both sampled.
+   */
+  @Test
+  public void testSampling () throws Throwable {
+    final File directory = folder.getRoot ();
+    final Description description = Description.createTestDescription (ProfilerTest.class,
+        "testMethod");
+    final Profiler profiler = new Profiler (1, TimeUnit.MILLISECONDS, directory,
+        Logger.getLogger (ProfilerTest.class.getName ()));
+    final Threads threads = new Threads ();
+    final CountDownLatch done = new CountDownLatch (1);
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            spin (200);
+            done.countDown ();
+          }
+
+        });
+        spin (200);
+        Wait.latch (done);
+      }
+
+    };
+
+    profiler.apply (threads.apply (statement, description), description).evaluate ();
+
+    final List<String> lines = Files.readAllLines (new File (directory,
+        Profiler.fileName (description.getDisplayName ())).toPath (), StandardCharsets.UTF_8);
+    boolean test = false;
+    boolean worker = false;
+    for (final String line : lines) {
+      assertTrue (line.matches ("\\S+ \\d+"));
+      test |= line.startsWith ("test;") && line.contains ("ProfilerTest.spin");
+      worker |= line.startsWith ("worker;") && line.contains ("ProfilerTest.spin");
+    }
+    assertTrue (test);
+    assertTrue (worker);
+  }
+
+  /**
+   * Tests the profile of a test without a name is written to "null.collapsed".
+   */
+  @Test
+  public void testNoName () throws Throwable {
+    final File directory = folder.getRoot ();
+    final Profiler profiler = new Profiler (1, TimeUnit.MILLISECONDS, directory,
+        Logger.getLogger (ProfilerTest.class.getName ()));
+    profiler.apply (new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        spin (20);
+      }
+
+    }, mock (Description.class)).evaluate ();
+    assertTrue (new File (directory, "null.collapsed").exists ());
+  }
+
+}
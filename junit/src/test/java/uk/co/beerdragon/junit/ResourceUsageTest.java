@@ -0,0 +1,177 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link ResourceUsage}.
+ */
+public class ResourceUsageTest {
+
+  /**
+   * Returns the figures recorded for a test.
+   */
+  private static String[] figures (final Description description) {
+    for (final String line : ResourceUsage.summary ().split ("\n")) {
+      final String[] fields = line.split ("\t");
+      if (fields[0].equals (description.getDisplayName ())) {
+        return fields;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tests the figures of the test thread are recorded.
+   */
+  @Test
+  public void testTestThread () throws Throwable {
+    final Description description = Description.createTestDescription (getClass (),
+        "testTestThread");
+    new ResourceUsage ().apply (new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final long stop = System.nanoTime () + 10000000;
+        while (System.nanoTime () < stop) {
+          assertNotNull (new byte[1024]);
+        }
+      }
+
+    }, description).evaluate ();
+    final String[] figures = figures (description);
+    assertEquals (8, figures.length);
+    assertTrue (Long.parseLong (figures[1]) >= 10000000);
+    assertTrue (Long.parseLong (figures[2]) >= 0);
+    assertEquals ("0", figures[3]);
+    assertEquals ("0", figures[4]);
+    assertTrue (Long.parseLong (figures[5]) >= 0);
+  }
+
+  /**
+   * Tests the figures of workers are recorded by {@link Threads}, regardless of rule order.
+   */
+  @Test
+  public void testWorkers () throws Throwable {
+    final Description description = Description.createTestDescription (getClass (), "testWorkers");
+    final ResourceUsage usage = new ResourceUsage ();
+    final Threads threads = new Threads ();
+    final Statement stmt = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final CountDownLatch started = new CountDownLatch (3);
+        for (int i = 0; i < 3; i++) {
+          threads.start (new Runnable () {
+
+            @Override
+            public void run () {
+              started.countDown ();
+              Wait.latch (started);
+            }
+
+          });
+        }
+        Wait.latch (started);
+      }
+
+    };
+    threads.apply (usage.apply (stmt, description), description).evaluate ();
+    String[] figures = figures (description);
+    assertEquals ("3", figures[3]);
+    assertEquals ("3", figures[4]);
+    usage.apply (threads.apply (stmt, description), description).evaluate ();
+    figures = figures (description);
+    assertEquals ("3", figures[3]);
+    assertEquals ("6", figures[4]);
+  }
+
+  /**
+   * Tests {@link Threads} records nothing for a test without the rule, even once an instance of the
+   * rule has been used by another test.
+   */
+  @Test
+  public void testWorkersWithoutRule () throws Throwable {
+    new ResourceUsage ().apply (mock (Statement.class), mock (Description.class)).evaluate ();
+    final Description description = Description.createTestDescription (getClass (),
+        "testWorkersWithoutRule");
+    final Threads threads = new Threads ();
+    threads.apply (new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            // No-op
+          }
+
+        });
+      }
+
+    }, description).evaluate ();
+    assertNull (figures (description));
+  }
+
+  /**
+   * Tests a test without a name is recorded under "null".
+   */
+  @Test
+  public void testNoName () throws Throwable {
+    final Description description = mock (Description.class);
+    final Threads threads = new Threads ();
+    new ResourceUsage ().apply (threads.apply (new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            // No-op
+          }
+
+        });
+      }
+
+    }, description), description).evaluate ();
+    assertTrue (ResourceUsage.summary ().contains ("\nnull\t"));
+  }
+
+  /**
+   * Tests the summary is written to a file.
+   */
+  @Test
+  public void testWrite () throws Exception {
+    final File file = File.createTempFile ("usage", ".tsv");
+    try {
+      ResourceUsage.write (file);
+      final String content = new String (Files.readAllBytes (file.toPath ()),
+          StandardCharsets.UTF_8);
+      assertTrue (content.startsWith ("# test\twall_ns\t"));
+      assertTrue (ResourceUsage.summary ().startsWith (content));
+    } finally {
+      file.delete ();
+    }
+  }
+
+}
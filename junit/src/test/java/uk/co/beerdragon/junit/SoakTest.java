@@ -0,0 +1,258 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link Soak}.
+ */
+public class SoakTest {
+
+  private static Soak soak (final Threads threads) {
+    final Logger logger = Logger.getAnonymousLogger ();
+    logger.setUseParentHandlers (false);
+    return new Soak (threads, logger).duration (500, TimeUnit.MILLISECONDS).windows (5);
+  }
+
+  private static void sleep (final long millis) {
+    try {
+      Thread.sleep (millis);
+    } catch (final InterruptedException e) {
+      throw new AssertionError (e);
+    }
+  }
+
+  /**
+   * Runs the soak, returning the failure message if it fails.
+   */
+  private static String drift (final Soak soak, final Statement stmt) throws Throwable {
+    try {
+      soak.apply (stmt, mock (Description.class)).evaluate ();
+      return null;
+    } catch (final AssertionError e) {
+      return e.getMessage ();
+    }
+  }
+
+  /**
+   * Tests fitting a trend.
+   */
+  @Test
+  public void testTrend () {
+    assertEquals (0.0, Soak.trend (new double[] {5, 10, 10, 10, 10 }), 1e-9);
+    assertEquals (1.0, Soak.trend (new double[] {0, 10, 15, 20 }), 1e-9);
+    assertEquals (-0.5, Soak.trend (new double[] {0, 20, -1, 10 }), 1e-9);
+    assertTrue (Double.isNaN (Soak.trend (new double[] {0, 10, -1, -1 })));
+    assertTrue (Double.isNaN (Soak.trend (new double[] {0, 0, 0, 0 })));
+  }
+
+  /**
+   * Tests a test with steady performance passes, and is repeated for the duration.
+   */
+  @Test
+  public void testSteady () throws Throwable {
+    final AtomicInteger iterations = new AtomicInteger ();
+    final long start = System.nanoTime ();
+    assertEquals (null, drift (soak (null).threshold (50), new Statement () {
+
+      @Override
+      public void evaluate () {
+        iterations.incrementAndGet ();
+        sleep (1);
+      }
+
+    }));
+    assertTrue (System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos (500));
+    assertTrue (iterations.get () > 10);
+  }
+
+  /**
+   * Tests falling throughput and rising latency are detected.
+   */
+  @Test
+  public void testSlowing () throws Throwable {
+    final long start = System.nanoTime ();
+    final String message = drift (soak (null), new Statement () {
+
+      @Override
+      public void evaluate () {
+        sleep (1 + TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - start) / 20);
+      }
+
+    });
+    assertTrue (message, message.contains ("Throughput fell by "));
+    assertTrue (message, message.contains ("Latency rose by "));
+  }
+
+  /**
+   * Tests windows without a complete iteration are not taken as a fall in throughput.
+   */
+  @Test
+  public void testLongIterations () throws Throwable {
+    assertEquals (null, drift (soak (null), new Statement () {
+
+      @Override
+      public void evaluate () {
+        sleep (250);
+      }
+
+    }));
+  }
+
+  /**
+   * Tests growing heap is detected.
+   */
+  @Test
+  public void testHeapLeak () throws Throwable {
+    final List<byte[]> leak = new ArrayList<byte[]> ();
+    final String message = drift (soak (null), new Statement () {
+
+      @Override
+      public void evaluate () {
+        leak.add (new byte[100000]);
+        sleep (1);
+      }
+
+    });
+    leak.clear ();
+    assertTrue (message, message.contains ("Heap rose by "));
+  }
+
+  /**
+   * Tests growing thread count is detected.
+   */
+  @Test
+  public void testThreadLeak () throws Throwable {
+    final CountDownLatch release = new CountDownLatch (1);
+    final List<Thread> leak = new ArrayList<Thread> ();
+    try {
+      final String message = drift (soak (null), new Statement () {
+
+        @Override
+        public void evaluate () {
+          final Thread thread = new Thread () {
+
+            @Override
+            public void run () {
+              try {
+                release.await ();
+              } catch (final InterruptedException e) {
+                // Ignore
+              }
+            }
+
+          };
+          thread.start ();
+          leak.add (thread);
+          sleep (5);
+        }
+
+      });
+      assertTrue (message, message.contains ("Threads rose by "));
+    } finally {
+      release.countDown ();
+      for (final Thread thread : leak) {
+        thread.join ();
+      }
+    }
+  }
+
+  /**
+   * Tests drift is only logged with {@link Soak#warnOnly}.
+   */
+  @Test
+  public void testWarnOnly () throws Throwable {
+    final List<byte[]> leak = new ArrayList<byte[]> ();
+    assertEquals (null, drift (soak (null).warnOnly (), new Statement () {
+
+      @Override
+      public void evaluate () {
+        leak.add (new byte[100000]);
+        sleep (1);
+      }
+
+    }));
+  }
+
+  /**
+   * Tests iterations on several workers.
+   */
+  @Test
+  public void testWorkers () throws Throwable {
+    final Threads threads = new Threads ();
+    final Soak soak = soak (threads).workers (3).threshold (50);
+    final Set<Thread> workers = Collections.synchronizedSet (new HashSet<Thread> ());
+    threads.apply (soak.apply (new Statement () {
+
+      @Override
+      public void evaluate () {
+        workers.add (Thread.currentThread ());
+        sleep (1);
+      }
+
+    }, mock (Description.class)), mock (Description.class)).evaluate ();
+    assertEquals (3, workers.size ());
+  }
+
+  /**
+   * Tests a failing iteration ends the run.
+   */
+  @Test
+  public void testFailure () throws Throwable {
+    final AtomicInteger iterations = new AtomicInteger ();
+    try {
+      soak (null).apply (new Statement () {
+
+        @Override
+        public void evaluate () {
+          if (iterations.incrementAndGet () == 3) {
+            throw new IllegalStateException ("FOO");
+          }
+        }
+
+      }, mock (Description.class)).evaluate ();
+      fail ();
+    } catch (final IllegalStateException e) {
+      assertEquals ("FOO", e.getMessage ());
+    }
+    assertEquals (3, iterations.get ());
+  }
+
+  /**
+   * Tests the duration can be overridden by the system property.
+   */
+  @Test
+  public void testDurationProperty () {
+    final Soak soak = new Soak ().duration (1, TimeUnit.MINUTES);
+    assertEquals (60000, soak.duration ());
+    System.setProperty (Soak.DURATION_PROPERTY, "1234");
+    try {
+      assertEquals (1234, soak.duration ());
+    } finally {
+      System.clearProperty (Soak.DURATION_PROPERTY);
+    }
+  }
+
+}
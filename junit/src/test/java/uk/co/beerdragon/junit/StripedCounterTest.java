@@ -0,0 +1,67 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests {@link StripedCounter}.
+ */
+public class StripedCounterTest {
+
+  /**
+   * Threads for the concurrent updates.
+   */
+  @Rule
+  public Threads threads = new Threads ();
+
+  /**
+   * Tests updates from a single thread.
+   */
+  @Test
+  public void testSingleThread () {
+    final StripedCounter counter = new StripedCounter ();
+    assertEquals (0, counter.sum ());
+    counter.increment ();
+    counter.add (5);
+    counter.decrement ();
+    assertEquals (5, counter.sum ());
+    assertEquals ("5", counter.toString ());
+  }
+
+  /**
+   * Tests no updates are lost from concurrent threads.
+   */
+  @Test
+  public void testConcurrent () {
+    final StripedCounter counter = new StripedCounter ();
+    threads.scope (new Runnable () {
+
+      @Override
+      public void run () {
+        for (int i = 0; i < 8; i++) {
+          threads.start (new Runnable () {
+
+            @Override
+            public void run () {
+              for (int j = 0; j < 10000; j++) {
+                counter.increment ();
+              }
+            }
+
+          });
+        }
+      }
+
+    });
+    assertEquals (80000, counter.sum ());
+  }
+
+}
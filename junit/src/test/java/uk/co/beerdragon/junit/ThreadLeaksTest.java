@@ -0,0 +1,195 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link ThreadLeaks}.
+ */
+public class ThreadLeaksTest {
+
+  private static final class Capture extends Handler {
+
+    private final List<String> _messages = new ArrayList<String> ();
+
+    @Override
+    public void publish (final LogRecord record) {
+      _messages.add (record.getMessage ());
+    }
+
+    @Override
+    public void flush () {
+    }
+
+    @Override
+    public void close () {
+    }
+
+  }
+
+  private static Logger logger (final Capture capture) {
+    final Logger logger = Logger.getAnonymousLogger ();
+    logger.setUseParentHandlers (false);
+    logger.addHandler (capture);
+    return logger;
+  }
+
+  /**
+   * Starts a thread that runs until the latch is released.
+   */
+  private static Statement leak (final ThreadFactory factory, final CountDownLatch release) {
+    return new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        factory.newThread (new Runnable () {
+
+          @Override
+          public void run () {
+            try {
+              release.await ();
+            } catch (final InterruptedException e) {
+              // Ignore
+            }
+          }
+
+        }).start ();
+      }
+
+    };
+  }
+
+  /**
+   * Tests a leaked thread fails the test with its creation and current stacks.
+   */
+  @Test
+  public void testLeak () throws Throwable {
+    final ThreadLeaks leaks = new ThreadLeaks ().grace (100, TimeUnit.MILLISECONDS);
+    final CountDownLatch release = new CountDownLatch (1);
+    final Description description = Description.createTestDescription (ThreadLeaksTest.class,
+        "leaky");
+    final ThreadFactory factory = ThreadLeaks.factory (Executors.defaultThreadFactory ());
+    try {
+      leaks.apply (leak (factory, release), description).evaluate ();
+      fail ();
+    } catch (final AssertionError e) {
+      final String message = e.getMessage ();
+      assertTrue (message, message.startsWith ("1 thread(s) leaked by leaky"));
+      assertTrue (message, message.contains ("CountDownLatch.await"));
+      assertTrue (message, message.contains ("Created at"));
+      assertTrue (message, message.contains ("ThreadLeaksTest$1.evaluate"));
+    } finally {
+      release.countDown ();
+    }
+    assertTrue (ThreadLeaks.summary ().contains ("1 thread(s) leaked by leaky"));
+  }
+
+  /**
+   * Tests threads that terminate within the grace period are not leaks.
+   */
+  @Test
+  public void testStraggler () throws Throwable {
+    final ThreadLeaks leaks = new ThreadLeaks ();
+    final CountDownLatch release = new CountDownLatch (1);
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        leak (Executors.defaultThreadFactory (), release).evaluate ();
+        new Thread () {
+
+          @Override
+          public void run () {
+            try {
+              Thread.sleep (50);
+            } catch (final InterruptedException e) {
+              // Ignore
+            }
+            release.countDown ();
+          }
+
+        }.start ();
+      }
+
+    };
+    leaks.apply (statement, Description.createTestDescription (ThreadLeaksTest.class, "straggler"))
+        .evaluate ();
+  }
+
+  /**
+   * Tests leaks can be reported without failing the test.
+   */
+  @Test
+  public void testWarnOnly () throws Throwable {
+    final Capture capture = new Capture ();
+    final ThreadLeaks leaks = new ThreadLeaks (logger (capture)).warnOnly ().grace (10,
+        TimeUnit.MILLISECONDS);
+    final CountDownLatch release = new CountDownLatch (1);
+    try {
+      leaks.apply (leak (Executors.defaultThreadFactory (), release),
+          Description.createTestDescription (ThreadLeaksTest.class, "warn")).evaluate ();
+    } finally {
+      release.countDown ();
+    }
+    assertEquals (1, capture._messages.size ());
+    assertTrue (capture._messages.get (0).startsWith ("1 thread(s) leaked by warn"));
+  }
+
+  /**
+   * Tests a leak by a test without a name is recorded under "null".
+   */
+  @Test
+  public void testNoName () throws Throwable {
+    final Capture capture = new Capture ();
+    final ThreadLeaks leaks = new ThreadLeaks (logger (capture)).warnOnly ().grace (10,
+        TimeUnit.MILLISECONDS);
+    final CountDownLatch release = new CountDownLatch (1);
+    try {
+      leaks.apply (leak (Executors.defaultThreadFactory (), release), mock (Description.class))
+          .evaluate ();
+    } finally {
+      release.countDown ();
+    }
+    assertTrue (capture._messages.get (0).startsWith ("1 thread(s) leaked by null"));
+    assertTrue (ThreadLeaks.summary ().contains ("thread(s) leaked by null\n"));
+  }
+
+  /**
+   * Tests threads can be excluded by name.
+   */
+  @Test
+  public void testIgnore () throws Throwable {
+    final ThreadLeaks leaks = new ThreadLeaks ().ignore ("pool-.*").grace (10,
+        TimeUnit.MILLISECONDS);
+    final CountDownLatch release = new CountDownLatch (1);
+    try {
+      leaks.apply (leak (Executors.defaultThreadFactory (), release),
+          Description.createTestDescription (ThreadLeaksTest.class, "ignored")).evaluate ();
+    } finally {
+      release.countDown ();
+    }
+  }
+
+}
@@ -7,14 +7,23 @@
 package uk.co.beerdragon.junit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
 import org.junit.runners.model.Statement;
 
 /**
@@ -139,4 +148,318 @@ public class ThreadsTest {
       assertEquals ("FOO", e.getMessage ());
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Tests contention monitoring reports the time a worker spent blocked on a monitor held by the
+   * test thread, the waits it then made on the monitor and the CPU time it spent spinning, and
+   * that the monitoring setting of the JVM is restored afterwards.
+   */
+  @Test
+  public void testContentionMonitoring () throws Throwable {
+    final ThreadMXBean mx = ManagementFactory.getThreadMXBean ();
+    final boolean enabled = mx.isThreadContentionMonitoringEnabled ();
+    final Object lock = new Object ();
+    final CountDownLatch started = new CountDownLatch (1);
+    final long[] blocked = new long[2];
+    final long[] other = new long[2];
+    final Threads threads = new Threads ().monitorContention (new WorkerStatistics.Check () {
+
+      @Override
+      public void check (final List<WorkerStatistics> workers) {
+        assertEquals (1, workers.size ());
+        blocked[0] = workers.get (0).getBlockedCount ();
+        blocked[1] = workers.get (0).getBlockedTimeMillis ();
+        assertTrue (workers.get (0).getWallTimeNanos () >= TimeUnit.MILLISECONDS.toNanos (100));
+        assertEquals (1, workers.get (0).getTasks ());
+        other[0] = workers.get (0).getWaitedCount ();
+        other[1] = workers.get (0).getCpuTimeNanos ();
+        assertTrue (workers.get (0).toString ().startsWith (
+            workers.get (0).getName () + ": tasks=1"));
+      }
+
+    }, WorkerStatistics.maxWaitedPercent (100));
+    final Description description = mock (Description.class);
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        synchronized (lock) {
+          threads.start (new Runnable () {
+
+            @Override
+            public void run () {
+              started.countDown ();
+              synchronized (lock) {
+                try {
+                  lock.wait (10);
+                } catch (final InterruptedException e) {
+                  throw new AssertionError (e);
+                }
+              }
+              final long stop = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (20);
+              while (System.nanoTime () < stop) {
+                Thread.yield ();
+              }
+            }
+
+          });
+          Wait.latch (started);
+          Thread.sleep (200);
+        }
+      }
+
+    };
+
+    threads.apply (statement, description).evaluate ();
+
+    assertTrue (blocked[0] >= 1);
+    assertTrue (blocked[1] >= 50);
+    assertTrue (other[0] > 0);
+    if (ManagementFactory.getThreadMXBean ().isThreadCpuTimeSupported ()) {
+      assertTrue (other[1] > 0);
+    }
+    assertEquals (enabled, mx.isThreadContentionMonitoringEnabled ());
+  }
+
+  /**
+   * Tests a failing contention check fails the test.
+   */
+  @Test
+  public void testContentionCheckFailure () throws Throwable {
+    final Object lock = new Object ();
+    final CountDownLatch started = new CountDownLatch (1);
+    final Threads threads = new Threads ().monitorContention (WorkerStatistics
+        .maxBlockedPercent (10));
+    final Description description = mock (Description.class);
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        synchronized (lock) {
+          threads.start (new Runnable () {
+
+            @Override
+            public void run () {
+              started.countDown ();
+              synchronized (lock) {
+                lock.notifyAll ();
+              }
+            }
+
+          });
+          Wait.latch (started);
+          Thread.sleep (200);
+        }
+      }
+
+    };
+
+    try {
+      threads.apply (statement, description).evaluate ();
+      fail ();
+    } catch (final AssertionError e) {
+      assertTrue (e.getMessage ().startsWith ("Workers were blocked for "));
+    }
+  }
+
+  /**
+   * Tests a scope waits for tasks started recursively within it.
+   */
+  @Test
+  public void testScope () throws Throwable {
+    final Threads threads = new Threads ();
+    final AtomicInteger count = new AtomicInteger ();
+    final Statement statement = new Statement () {
+
+      private void spawn (final int depth) {
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            if (depth > 0) {
+              spawn (depth - 1);
+              spawn (depth - 1);
+            }
+            try {
+              Thread.sleep (1);
+            } catch (final InterruptedException e) {
+              throw new AssertionError (e);
+            }
+            count.incrementAndGet ();
+          }
+
+        });
+      }
+
+      @Override
+      public void evaluate () throws Throwable {
+        threads.scope (new Runnable () {
+
+          @Override
+          public void run () {
+            spawn (4);
+          }
+
+        });
+        assertEquals (31, count.get ());
+      }
+
+    };
+    threads.apply (statement, mock (Description.class)).evaluate ();
+  }
+
+  /**
+   * Tests a failure in a scope cancels the other tasks and is thrown from the scope, only once.
+   */
+  @Test
+  public void testScopeFailure () throws Throwable {
+    final Threads threads = new Threads ();
+    final CountDownLatch started = new CountDownLatch (1);
+    final CountDownLatch never = new CountDownLatch (1);
+    final AtomicInteger interrupted = new AtomicInteger ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        try {
+          threads.scope (new Runnable () {
+
+            @Override
+            public void run () {
+              threads.start (new Runnable () {
+
+                @Override
+                public void run () {
+                  try {
+                    started.countDown ();
+                    never.await ();
+                  } catch (final InterruptedException e) {
+                    interrupted.incrementAndGet ();
+                  }
+                }
+
+              });
+              threads.start (new Runnable () {
+
+                @Override
+                public void run () {
+                  Wait.latch (started);
+                  throw new IllegalStateException ("phase 1");
+                }
+
+              });
+            }
+
+          });
+          fail ();
+        } catch (final IllegalStateException e) {
+          assertEquals ("phase 1", e.getMessage ());
+        }
+        assertEquals (1, interrupted.get ());
+      }
+
+    };
+    final long start = System.nanoTime ();
+    threads.apply (statement, mock (Description.class)).evaluate ();
+    assertTrue (System.nanoTime () - start < TimeUnit.MILLISECONDS.toNanos (Wait.maxWait ()));
+  }
+
+  /**
+   * Tests a failure in a scope is thrown ahead of the timeout caused by a task that ignores being
+   * cancelled.
+   */
+  @Test
+  public void testScopeFailureAndTimeout () throws Throwable {
+    final Threads threads = new Threads ();
+    final CountDownLatch release = new CountDownLatch (1);
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        try {
+          threads.scope (new Runnable () {
+
+            @Override
+            public void run () {
+              threads.start (new Runnable () {
+
+                @Override
+                public void run () {
+                  while (release.getCount () > 0) {
+                    try {
+                      release.await ();
+                    } catch (final InterruptedException e) {
+                      // Ignore the cancellation
+                    }
+                  }
+                }
+
+              });
+              threads.start (new Runnable () {
+
+                @Override
+                public void run () {
+                  throw new IllegalStateException ("FOO");
+                }
+
+              });
+            }
+
+          });
+          fail ();
+        } catch (final IllegalStateException e) {
+          assertEquals ("FOO", e.getMessage ());
+          assertEquals (1, e.getSuppressed ().length);
+          assertTrue (e.getSuppressed ()[0].getMessage ().startsWith (
+              "Tasks did not complete within scope"));
+        } finally {
+          release.countDown ();
+        }
+      }
+
+    };
+    threads.apply (statement, mock (Description.class)).evaluate ();
+  }
+
+  /**
+   * Tests the failures retained in bounded memory mode, and that tasks started from the same place
+   * share their stack frames.
+   */
+  @Test
+  public void testBoundedMemory () throws Throwable {
+    final Threads threads = new Threads ().boundedMemory (3);
+    final Runnable slave = new Runnable () {
+
+      @Override
+      public void run () {
+        throw new IllegalStateException ("FOO");
+      }
+
+    };
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        for (int i = 0; i < 10; i++) {
+          threads.start (slave);
+        }
+      }
+
+    };
+
+    try {
+      threads.apply (statement, mock (Description.class)).evaluate ();
+      fail ();
+    } catch (final MultipleFailureException e) {
+      final List<Throwable> failures = e.getFailures ();
+      assertEquals (4, failures.size ());
+      final StackTraceElement[] stack = failures.get (0).getStackTrace ();
+      assertEquals (slave.getClass ().getName (), stack[0].getClassName ()); // Throw point
+      assertEquals (statement.getClass ().getName (), stack[3].getClassName ()); // Spawn point
+      assertSame (stack[3], failures.get (1).getStackTrace ()[3]);
+      assertEquals ("7 further failure(s) not retained:\n  7 x java.lang.IllegalStateException",
+          failures.get (3).getMessage ());
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * JUnit testing utilities.
+ *
+ * Copyright 2015 by Andrew Ian William Griffin <griffin@beerdragon.co.uk>.
+ * Released under the GNU General Public License.
+ */
+package uk.co.beerdragon.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Tests {@link Trace}.
+ */
+public class TraceTest {
+
+  private static final class Capture extends Handler {
+
+    private final List<String> _messages = new ArrayList<String> ();
+
+    @Override
+    public void publish (final LogRecord record) {
+      _messages.add (record.getMessage ());
+    }
+
+    @Override
+    public void flush () {
+    }
+
+    @Override
+    public void close () {
+    }
+
+  }
+
+  private static Logger logger (final Capture capture) {
+    final Logger logger = Logger.getAnonymousLogger ();
+    logger.setUseParentHandlers (false);
+    logger.addHandler (capture);
+    return logger;
+  }
+
+  /**
+   * Tests nothing is written if the test passes.
+   */
+  @Test
+  public void testPass () throws Throwable {
+    final Capture capture = new Capture ();
+    final Trace trace = new Trace (16, logger (capture));
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        trace.record (1, 2, 3);
+      }
+
+    };
+
+    trace.apply (statement, mock (Description.class)).evaluate ();
+
+    assertEquals (0, capture._messages.size ());
+  }
+
+  /**
+   * Tests the records from several threads are written in order if the test fails.
+   */
+  @Test
+  public void testFailure () throws Throwable {
+    final Capture capture = new Capture ();
+    final Trace trace = new Trace (16, logger (capture)).name (1, "FIRST").name (3, "THIRD");
+    final Threads threads = new Threads ();
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        final CountDownLatch latch = new CountDownLatch (1);
+        trace.record (1, 10);
+        threads.start (new Runnable () {
+
+          @Override
+          public void run () {
+            trace.record (2, 20, 21);
+            latch.countDown ();
+          }
+
+        });
+        Wait.latch (latch);
+        trace.record (3);
+        throw new IllegalStateException ();
+      }
+
+    };
+    final Description description = mock (Description.class);
+
+    try {
+      trace.apply (threads.apply (statement, description), description).evaluate ();
+      fail ();
+    } catch (final IllegalStateException e) {
+      // Expected
+    }
+
+    assertEquals (1, capture._messages.size ());
+    final String[] lines = capture._messages.get (0).split ("\n");
+    assertEquals (4, lines.length);
+    assertTrue (lines[1].matches ("\\+\\d+ns \\S+ FIRST 10 0"));
+    assertTrue (lines[2].matches ("\\+\\d+ns null-1 2 20 21"));
+    assertTrue (lines[3].matches ("\\+\\d+ns \\S+ THIRD 0 0"));
+  }
+
+  /**
+   * Tests only the most recent records are kept when a buffer overflows.
+   */
+  @Test
+  public void testOverflow () throws Throwable {
+    final Capture capture = new Capture ();
+    final Trace trace = new Trace (4, logger (capture));
+    final Statement statement = new Statement () {
+
+      @Override
+      public void evaluate () throws Throwable {
+        for (int i = 0; i < 10; i++) {
+          trace.record (0, i);
+        }
+        fail ();
+      }
+
+    };
+
+    try {
+      trace.apply (statement, mock (Description.class)).evaluate ();
+      fail ();
+    } catch (final AssertionError e) {
+      // Expected
+    }
+
+    final String[] lines = capture._messages.get (0).split ("\n");
+    assertEquals (6, lines.length);
+    assertTrue (lines[1].endsWith (" overwrote 6 records"));
+    for (int i = 0; i < 4; i++) {
+      assertTrue (lines[i + 2].endsWith (" 0 " + (i + 6) + " 0"));
+    }
+  }
+
+  /**
+   * Tests events recorded outside of a test are ignored.
+   */
+  @Test
+  public void testNoTest () {
+    new Trace ().record (1);
+  }
+
+}